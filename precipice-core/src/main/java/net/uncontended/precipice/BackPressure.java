@@ -35,6 +35,20 @@ public interface BackPressure<Rejected extends Enum<Rejected>> {
      */
     Rejected acquirePermit(long number, long nanoTime);
 
+    /**
+     * Acquires the request permits for task execution on behalf of a caller with a priority.
+     * Lower values are more critical. Back pressure mechanisms that do not consider priority
+     * make the same decision as {@link #acquirePermit(long, long)}.
+     *
+     * @param number   of permits requested
+     * @param nanoTime currentInterval nanosecond time
+     * @param priority of the caller
+     * @return the reason for rejection if permit acquisition fails
+     */
+    default Rejected acquirePermit(long number, long nanoTime, int priority) {
+        return acquirePermit(number, nanoTime);
+    }
+
     /**
      * Releases permits without considering the result of the execution.
      *
@@ -18,7 +18,10 @@
 package net.uncontended.precipice;
 
 import net.uncontended.precipice.factories.Synchronous;
+import net.uncontended.precipice.rejected.RejectedException;
 import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.retry.RetryBudget;
+import net.uncontended.precipice.retry.RetryPolicy;
 import net.uncontended.precipice.timeout.PrecipiceTimeoutException;
 
 import java.util.concurrent.Callable;
@@ -55,4 +58,47 @@ public class CallService<Rejected extends Enum<Rejected>> implements Precipice<T
             throw e;
         }
     }
+
+    /**
+     * Calls the callable, retrying failures according to the policy. Each attempt acquires its
+     * own permit. Backoff happens on the calling thread. If a retry is denied by the budget or
+     * rejected by the guard rail, the exception from the last attempt is thrown. A retry rejected by
+     * the guard rail is returned to the budget.
+     *
+     * @param callable the callable to call
+     * @param policy   the retry policy
+     * @param <T>      the type of the result
+     * @return the result of the first successful attempt
+     * @throws Exception the exception from the last attempt
+     */
+    public <T> T call(Callable<T> callable, RetryPolicy<Rejected> policy) throws Exception {
+        RetryBudget<Rejected> budget = policy.budget();
+        Exception lastFailure = null;
+        int attempt = 1;
+        for (; ; ) {
+            try {
+                return call(callable);
+            } catch (RejectedException e) {
+                if (lastFailure == null) {
+                    throw e;
+                }
+                // The budget granted this retry, but the guard rail rejected it.
+                budget.refundRetry(guardRail.getClock().nanoTime());
+                throw lastFailure;
+            } catch (Exception e) {
+                lastFailure = e;
+                if (attempt == policy.maxAttempts()) {
+                    throw e;
+                }
+                long nanoTime = guardRail.getClock().nanoTime();
+                Rejected rejected = budget.acquireRetry(nanoTime);
+                if (rejected != null) {
+                    guardRail.getRejectedCounts().write(rejected, 1L, nanoTime);
+                    throw e;
+                }
+                Thread.sleep(policy.backoffMillis(attempt));
+                ++attempt;
+            }
+        }
+    }
 }
@@ -67,9 +67,32 @@ public class GuardRail<Result extends Enum<Result> & Failable, Rejected extends
      * @return the rejected reason
      */
     public Rejected acquirePermits(long number, long nanoTime) {
+        return acquirePermits(number, nanoTime, 0, false);
+    }
+
+    /**
+     * Acquire permits for task execution on behalf of a caller with a priority. Lower values
+     * are more critical. If the acquisition is rejected then a reason will be returned. If the
+     * acquisition is successful, null will be returned.
+     *
+     * @param number   of permits to acquire
+     * @param nanoTime currentInterval nano time
+     * @param priority of the caller
+     * @return the rejected reason
+     */
+    public Rejected acquirePermits(long number, long nanoTime, int priority) {
+        return acquirePermits(number, nanoTime, priority, true);
+    }
+
+    private Rejected acquirePermits(long number, long nanoTime, int priority, boolean hasPriority) {
         for (int i = 0; i < backPressureList.size(); ++i) {
             BackPressure<Rejected> bp = backPressureList.get(i);
-            Rejected rejected = bp.acquirePermit(number, nanoTime);
+            Rejected rejected;
+            if (hasPriority) {
+                rejected = bp.acquirePermit(number, nanoTime, priority);
+            } else {
+                rejected = bp.acquirePermit(number, nanoTime);
+            }
             if (rejected != null) {
                 rejectedCounts.write(rejected, number, nanoTime);
 
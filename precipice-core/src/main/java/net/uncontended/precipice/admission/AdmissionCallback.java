@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.admission;
+
+/**
+ * A continuation for an asynchronous wait on an {@link AdmissionQueue}. Exactly one of the
+ * methods will be called.
+ *
+ * @param <Rejected> the type for rejection reasons
+ */
+public interface AdmissionCallback<Rejected extends Enum<Rejected>> {
+
+    /**
+     * Called when the permits have been acquired. This may be called on the thread that
+     * released the permits that were handed off.
+     *
+     * @param nanoTime the nano time the permits were acquired
+     */
+    void admitted(long nanoTime);
+
+    /**
+     * Called when the permits could not be acquired before the deadline.
+     *
+     * @param reason the most recent rejection reason
+     */
+    void rejected(Rejected reason);
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.admission;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.metrics.latency.NoOpLatency;
+import net.uncontended.precipice.metrics.latency.WritableLatency;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.timeout.Timeout;
+import net.uncontended.precipice.timeout.TimeoutService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of callers waiting for {@link GuardRail} permits. A caller whose acquisition
+ * is rejected can wait until a deadline instead of failing immediately.
+ * <p/>
+ * The queue is registered with the guard rail as a {@link BackPressure} and observes every
+ * release. It must be added to the guard rail last, so that the other back pressure mechanisms
+ * have released their permits before it is notified. While callers are waiting, new arrivals are
+ * queued behind them, and acquisitions made directly on the guard rail are rejected, so no caller
+ * can barge ahead of the queue. On a release, the permits are transferred to a single waiter,
+ * either the oldest (FIFO) or the newest (LIFO). The transfer acquires the permits from the other
+ * back pressure mechanisms directly rather than through the guard rail, so a transfer that cannot
+ * be completed yet is not counted as a rejection. Other waiters are not woken.
+ * <p/>
+ * The time spent waiting by callers that were queued is recorded in the wait latency metric
+ * with the outcome of the wait. Callers admitted without waiting are not recorded.
+ */
+public class AdmissionQueue<Rejected extends Enum<Rejected>> implements BackPressure<Rejected> {
+
+    private final HandoffOrder order;
+    private final int maxQueueSize;
+    private final WritableLatency<WaitOutcome> waitLatency;
+    private final TimeoutService timeoutService;
+    private final ConcurrentLinkedDeque<Waiter<Rejected>> waiters = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private final List<BackPressure<Rejected>> otherBackPressure = new ArrayList<>();
+    private GuardRail<?, Rejected> guardRail;
+    private Clock clock;
+    // The most recent reason the guard rail rejected a caller. Given to callers queued behind waiters.
+    private volatile Rejected lastRejected;
+    // Only written by the thread holding wip. Used to ignore releases caused by our own hand off.
+    private Thread handOffThread;
+
+    public AdmissionQueue(HandoffOrder order, int maxQueueSize) {
+        this(order, maxQueueSize, new NoOpLatency<>(WaitOutcome.class), null);
+    }
+
+    public AdmissionQueue(HandoffOrder order, int maxQueueSize, WritableLatency<WaitOutcome> waitLatency,
+                          TimeoutService timeoutService) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("Max queue size must be greater than 0. Found: " + maxQueueSize);
+        }
+        this.order = order;
+        this.maxQueueSize = maxQueueSize;
+        this.waitLatency = waitLatency;
+        this.timeoutService = timeoutService;
+    }
+
+    /**
+     * Acquires permits from the guard rail, waiting up to the timeout for permits to be handed
+     * off if the acquisition is rejected. If the calling thread is interrupted while waiting,
+     * the wait is abandoned and the interrupt status is restored.
+     *
+     * @param number  of permits to acquire
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return the rejected reason, or null if the permits were acquired
+     */
+    public Rejected acquirePermits(long number, long timeout, TimeUnit unit) {
+        long startNanos = clock.nanoTime();
+        Rejected rejected = tryAcquire(number, startNanos);
+        if (rejected == null) {
+            return null;
+        }
+
+        Waiter<Rejected> waiter = new Waiter<>(number, startNanos, rejected, Thread.currentThread(), null);
+        if (!enqueue(waiter)) {
+            return rejected;
+        }
+
+        long deadline = startNanos + unit.toNanos(timeout);
+        for (; ; ) {
+            if (waiter.state == Waiter.GRANTED) {
+                return null;
+            }
+            long remaining = deadline - clock.nanoTime();
+            if (remaining <= 0 || Thread.interrupted()) {
+                if (remaining > 0) {
+                    Thread.currentThread().interrupt();
+                }
+                if (cancel(waiter)) {
+                    return waiter.rejected;
+                }
+            } else {
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+
+    /**
+     * Acquires permits from the guard rail, registering a continuation to be called once the
+     * permits have been handed off or the timeout has elapsed. The callback is called on the
+     * caller's thread if the permits are acquired immediately or the queue is full.
+     *
+     * @param number        of permits to acquire
+     * @param timeoutMillis the maximum time to wait
+     * @param callback      to be called with the outcome
+     */
+    public void acquirePermits(long number, long timeoutMillis, final AdmissionCallback<Rejected> callback) {
+        if (timeoutService == null) {
+            throw new IllegalStateException("Asynchronous waits require a timeout service.");
+        }
+
+        long startNanos = clock.nanoTime();
+        Rejected rejected = tryAcquire(number, startNanos);
+        if (rejected == null) {
+            callback.admitted(startNanos);
+            return;
+        }
+
+        final Waiter<Rejected> waiter = new Waiter<>(number, startNanos, rejected, null, callback);
+        if (!enqueue(waiter)) {
+            callback.rejected(rejected);
+            return;
+        }
+        timeoutService.scheduleTimeout(new Timeout() {
+            @Override
+            public void timeout() {
+                if (cancel(waiter)) {
+                    callback.rejected(waiter.rejected);
+                }
+            }
+        }, timeoutMillis, startNanos);
+    }
+
+    public int queueSize() {
+        return queueSize.get();
+    }
+
+    @Override
+    public Rejected acquirePermit(long number, long nanoTime) {
+        // Acquisitions made directly on the guard rail must not take permits owed to waiters.
+        if (queueSize.get() > 0) {
+            return lastRejected;
+        }
+        return null;
+    }
+
+    @Override
+    public void releasePermit(long number, long nanoTime) {
+        released();
+    }
+
+    @Override
+    public void releasePermit(long number, Failable result, long nanoTime) {
+        released();
+    }
+
+    @Override
+    public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+        this.guardRail = guardRail;
+        this.clock = guardRail.getClock();
+        otherBackPressure.clear();
+        for (BackPressure<Rejected> backPressure : guardRail.getBackPressure().values()) {
+            if (backPressure != this) {
+                otherBackPressure.add(backPressure);
+            }
+        }
+    }
+
+    private Rejected tryAcquire(long number, long nanoTime) {
+        Rejected queued = lastRejected;
+        if (queued != null && queueSize.get() > 0) {
+            return queued;
+        }
+        Rejected rejected = guardRail.acquirePermits(number, nanoTime);
+        if (rejected != null) {
+            lastRejected = rejected;
+        }
+        return rejected;
+    }
+
+    private void released() {
+        if (!waiters.isEmpty()) {
+            handOff();
+        }
+    }
+
+    private boolean enqueue(Waiter<Rejected> waiter) {
+        for (; ; ) {
+            int size = queueSize.get();
+            if (size >= maxQueueSize) {
+                return false;
+            } else if (queueSize.compareAndSet(size, size + 1)) {
+                break;
+            }
+        }
+        waiters.offerLast(waiter);
+
+        // Permits released between the failed attempt and the enqueue would not have been handed
+        // off, and the waiters this caller queued behind may have been admitted in the meantime.
+        handOff();
+        return true;
+    }
+
+    private boolean cancel(Waiter<Rejected> waiter) {
+        if (Waiter.STATE_UPDATER.compareAndSet(waiter, Waiter.WAITING, Waiter.CANCELLED)) {
+            remove(waiter);
+            long nanoTime = clock.nanoTime();
+            waitLatency.write(WaitOutcome.TIMED_OUT, waiter.permits, nanoTime - waiter.startNanos, nanoTime);
+            return true;
+        }
+        return false;
+    }
+
+    private void remove(Waiter<Rejected> waiter) {
+        if (waiters.removeFirstOccurrence(waiter)) {
+            queueSize.decrementAndGet();
+        }
+    }
+
+    private void handOff() {
+        Thread currentThread = Thread.currentThread();
+        if (handOffThread == currentThread || wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        handOffThread = currentThread;
+        try {
+            for (; ; ) {
+                handOffToWaiters();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        } finally {
+            handOffThread = null;
+        }
+    }
+
+    private void handOffToWaiters() {
+        for (; ; ) {
+            Waiter<Rejected> waiter = order == HandoffOrder.FIFO ? waiters.peekFirst() : waiters.peekLast();
+            if (waiter == null) {
+                return;
+            } else if (waiter.state != Waiter.WAITING) {
+                remove(waiter);
+                continue;
+            }
+
+            long nanoTime = clock.nanoTime();
+            Rejected rejected = transferPermits(waiter.permits, nanoTime);
+            if (rejected != null) {
+                waiter.rejected = rejected;
+                return;
+            }
+
+            remove(waiter);
+            if (Waiter.STATE_UPDATER.compareAndSet(waiter, Waiter.WAITING, Waiter.GRANTED)) {
+                waitLatency.write(WaitOutcome.ADMITTED, waiter.permits, nanoTime - waiter.startNanos, nanoTime);
+                if (waiter.thread != null) {
+                    LockSupport.unpark(waiter.thread);
+                } else {
+                    admit(waiter.callback, nanoTime);
+                }
+            } else {
+                for (BackPressure<Rejected> backPressure : otherBackPressure) {
+                    backPressure.releasePermit(waiter.permits, nanoTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a waiter's callback. A callback that throws is reported to the current thread's
+     * uncaught exception handler, so that it cannot stop the hand off to the remaining waiters.
+     */
+    private static <Rejected extends Enum<Rejected>> void admit(AdmissionCallback<Rejected> callback, long nanoTime) {
+        try {
+            callback.admitted(nanoTime);
+        } catch (Throwable t) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+        }
+    }
+
+    /**
+     * Acquires permits from every back pressure mechanism other than this queue, releasing them
+     * again if one of the mechanisms rejects. Nothing is written to the guard rail's rejected
+     * counts.
+     */
+    private Rejected transferPermits(long number, long nanoTime) {
+        for (int i = 0; i < otherBackPressure.size(); ++i) {
+            Rejected rejected = otherBackPressure.get(i).acquirePermit(number, nanoTime);
+            if (rejected != null) {
+                for (int j = 0; j < i; ++j) {
+                    otherBackPressure.get(j).releasePermit(number, nanoTime);
+                }
+                return rejected;
+            }
+        }
+        return null;
+    }
+
+    private static class Waiter<Rejected extends Enum<Rejected>> {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+        private static final AtomicIntegerFieldUpdater<Waiter<?>> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(waiterClass(), "state");
+
+        private final long permits;
+        private final long startNanos;
+        private final Thread thread;
+        private final AdmissionCallback<Rejected> callback;
+        private volatile int state = WAITING;
+        private volatile Rejected rejected;
+
+        private Waiter(long permits, long startNanos, Rejected rejected, Thread thread,
+                       AdmissionCallback<Rejected> callback) {
+            this.permits = permits;
+            this.startNanos = startNanos;
+            this.rejected = rejected;
+            this.thread = thread;
+            this.callback = callback;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Class<Waiter<?>> waiterClass() {
+            return (Class) Waiter.class;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.circuit;
+
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A circuit breaker that opens once the number of consecutive failures exceeds
+ * {@link CircuitBreakerConfig#failureThreshold} and closes again on the next success. The threshold
+ * means the same thing as in {@link DefaultCircuitBreaker}. Unlike that breaker, it does
+ * not read any metrics from the guard rail, so it can be used with any result counts.
+ * <p/>
+ * The breaker state and the current failure streak are packed into a single atomic long. The
+ * top two bits hold the state and the remaining bits hold the count.
+ */
+public class ConsecutiveFailureBreaker<Rejected extends Enum<Rejected>> implements CircuitBreaker<Rejected> {
+    private static final long CLOSED = 0;
+    private static final long OPEN = 1L << 62;
+    private static final long FORCED_OPEN = 2L << 62;
+    private static final long STATE_MASK = 3L << 62;
+    private static final long COUNT_MASK = ~STATE_MASK;
+
+    private final AtomicLong state = new AtomicLong(CLOSED);
+    private volatile long lastTestedNanoTime = 0;
+    private volatile CircuitBreakerConfig<Rejected> breakerConfig;
+
+    public ConsecutiveFailureBreaker(CircuitBreakerConfig<Rejected> breakerConfig) {
+        this.breakerConfig = breakerConfig;
+    }
+
+    @Override
+    public Rejected acquirePermit(long number, long nanoTime) {
+        long state = this.state.get() & STATE_MASK;
+        if (state == CLOSED) {
+            return null;
+        }
+
+        CircuitBreakerConfig<Rejected> config = breakerConfig;
+        if (state == OPEN) {
+            if (nanoTime - (config.backOffTimeNanos + lastTestedNanoTime) < 0) {
+                return config.reason;
+            }
+            lastTestedNanoTime = nanoTime;
+            return null;
+        }
+        return config.forcedReason;
+    }
+
+    @Override
+    public void releasePermit(long number, long nanoTime) {
+    }
+
+    @Override
+    public void releasePermit(long number, Failable result, long nanoTime) {
+        if (result.isSuccess()) {
+            for (; ; ) {
+                long current = state.get();
+                // Nothing to write on the common path of a success while closed with no streak.
+                if (current == CLOSED || (current & STATE_MASK) == FORCED_OPEN) {
+                    return;
+                }
+                if (state.compareAndSet(current, CLOSED)) {
+                    return;
+                }
+            }
+        } else {
+            long failureThreshold = breakerConfig.failureThreshold;
+            for (; ; ) {
+                long current = state.get();
+                if ((current & STATE_MASK) != CLOSED) {
+                    return;
+                }
+                long failures = (current & COUNT_MASK) + 1;
+                if (failureThreshold < failures) {
+                    lastTestedNanoTime = nanoTime;
+                    if (state.compareAndSet(current, OPEN)) {
+                        return;
+                    }
+                } else if (state.compareAndSet(current, failures)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return (state.get() & STATE_MASK) != CLOSED;
+    }
+
+    /**
+     * Returns the number of consecutive failures observed since the last success. This
+     * will be zero when the circuit is open.
+     *
+     * @return the current failure streak
+     */
+    public long consecutiveFailures() {
+        return state.get() & COUNT_MASK;
+    }
+
+    @Override
+    public CircuitBreakerConfig<Rejected> getBreakerConfig() {
+        return breakerConfig;
+    }
+
+    @Override
+    public void setBreakerConfig(CircuitBreakerConfig<Rejected> breakerConfig) {
+        this.breakerConfig = breakerConfig;
+    }
+
+    @Override
+    public void forceOpen() {
+        state.set(FORCED_OPEN);
+    }
+
+    @Override
+    public void forceClosed() {
+        state.set(CLOSED);
+    }
+}
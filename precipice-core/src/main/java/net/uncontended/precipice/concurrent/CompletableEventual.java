@@ -0,0 +1,469 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.concurrent;
+
+import net.uncontended.precipice.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A {@link PrecipicePromise} and {@link PrecipiceFuture} that is also a {@link CompletionStage}.
+ * Stages composed with methods such as {@link #thenApply(Function)} or {@link #thenCompose(Function)}
+ * depend directly on the promise, without an adapter future.
+ * <p/>
+ * The promise can only be completed through {@link #complete(Failable, Object)} or
+ * {@link #completeExceptionally(Failable, Throwable)}, so that a result is always recorded and the
+ * guard rail permits are released. {@link #toCompletableFuture()} returns a view that is created
+ * once. Completing or obtruding a value on the view does not affect the promise.
+ * <p/>
+ * {@link #cancel(boolean)} cancels the attached {@link Cancellable}. If a cancelled result was
+ * provided, the promise is also completed with that result and a {@link CancellationException},
+ * which releases the permits and cancels dependent stages.
+ */
+public class CompletableEventual<Result extends Failable, V> implements PrecipiceFuture<Result, V>,
+        PrecipicePromise<Result, V>, CompletionStage<V>, ExecutionContext {
+
+    private static final AtomicReferenceFieldUpdater<CompletableEventual<?, ?>, Failable> RESULT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(completableEventualClass(), Failable.class, "result");
+    private static final AtomicReferenceFieldUpdater<CompletableEventual<?, ?>, CompletableFuture> VIEW_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(completableEventualClass(), CompletableFuture.class, "view");
+
+    private final long permitCount;
+    private final long startNanos;
+    private final Result cancelledResult;
+    private final Completable<Result, V> wrappedPromise;
+    private final CompletableFuture<V> future = new CompletableFuture<>();
+    // Written before the CompletableFuture is completed, which publishes them.
+    private V value;
+    private Throwable throwable;
+    private volatile Result result;
+    private volatile Cancellable cancellable;
+    private volatile boolean isCancelled = false;
+    private volatile CompletableFuture<V> view;
+    private PrecipiceFunction<Result, ExecutionContext> internalCallback;
+
+    public CompletableEventual() {
+        this(0L);
+    }
+
+    public CompletableEventual(long permitCount) {
+        this(permitCount, System.nanoTime());
+    }
+
+    public CompletableEventual(long permitCount, long startNanos) {
+        this(permitCount, startNanos, null, null);
+    }
+
+    public CompletableEventual(long permitCount, long startNanos, Result cancelledResult,
+                               Completable<Result, V> completable) {
+        this.permitCount = permitCount;
+        this.startNanos = startNanos;
+        this.cancelledResult = cancelledResult;
+        wrappedPromise = completable;
+    }
+
+    @Override
+    public boolean complete(Result result, V value) {
+        if (this.result == null && RESULT_UPDATER.compareAndSet(this, null, result)) {
+            this.value = value;
+            executeInternalCallback(result);
+            future.complete(value);
+            if (wrappedPromise != null) {
+                wrappedPromise.complete(result, value);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean completeExceptionally(Result result, Throwable exception) {
+        if (this.result == null && RESULT_UPDATER.compareAndSet(this, null, result)) {
+            throwable = exception;
+            executeInternalCallback(result);
+            if (exception != null) {
+                future.completeExceptionally(exception);
+            } else {
+                future.completeExceptionally(new IllegalStateException("Completed with result: " + result));
+            }
+            if (wrappedPromise != null) {
+                wrappedPromise.completeExceptionally(result, exception);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a {@link CompletableFuture} that is completed when this promise is completed. The
+     * view is created on the first call and returned by later calls. Completing the view does not
+     * affect this promise.
+     *
+     * @return a view of this promise
+     */
+    @Override
+    public CompletableFuture<V> toCompletableFuture() {
+        CompletableFuture<V> view = this.view;
+        if (view == null) {
+            VIEW_UPDATER.compareAndSet(this, null, future.thenApply(Function.<V>identity()));
+            view = this.view;
+        }
+        return view;
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApply(Function<? super V, ? extends U> fn) {
+        return future.thenApply(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super V, ? extends U> fn) {
+        return future.thenApplyAsync(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super V, ? extends U> fn, Executor executor) {
+        return future.thenApplyAsync(fn, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> thenAccept(Consumer<? super V> action) {
+        return future.thenAccept(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super V> action) {
+        return future.thenAcceptAsync(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super V> action, Executor executor) {
+        return future.thenAcceptAsync(action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> thenRun(Runnable action) {
+        return future.thenRun(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action) {
+        return future.thenRunAsync(action);
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+        return future.thenRunAsync(action, executor);
+    }
+
+    @Override
+    public <U, R> CompletionStage<R> thenCombine(CompletionStage<? extends U> other,
+                                                 BiFunction<? super V, ? super U, ? extends R> fn) {
+        return future.thenCombine(other, fn);
+    }
+
+    @Override
+    public <U, R> CompletionStage<R> thenCombineAsync(CompletionStage<? extends U> other,
+                                                      BiFunction<? super V, ? super U, ? extends R> fn) {
+        return future.thenCombineAsync(other, fn);
+    }
+
+    @Override
+    public <U, R> CompletionStage<R> thenCombineAsync(CompletionStage<? extends U> other,
+                                                      BiFunction<? super V, ? super U, ? extends R> fn,
+                                                      Executor executor) {
+        return future.thenCombineAsync(other, fn, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other,
+                                                    BiConsumer<? super V, ? super U> action) {
+        return future.thenAcceptBoth(other, action);
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+                                                         BiConsumer<? super V, ? super U> action) {
+        return future.thenAcceptBothAsync(other, action);
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+                                                         BiConsumer<? super V, ? super U> action, Executor executor) {
+        return future.thenAcceptBothAsync(other, action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+        return future.runAfterBoth(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+        return future.runAfterBothAsync(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return future.runAfterBothAsync(other, action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEither(CompletionStage<? extends V> other, Function<? super V, U> fn) {
+        return future.applyToEither(other, fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends V> other, Function<? super V, U> fn) {
+        return future.applyToEitherAsync(other, fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends V> other, Function<? super V, U> fn,
+                                                     Executor executor) {
+        return future.applyToEitherAsync(other, fn, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEither(CompletionStage<? extends V> other, Consumer<? super V> action) {
+        return future.acceptEither(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends V> other, Consumer<? super V> action) {
+        return future.acceptEitherAsync(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends V> other, Consumer<? super V> action,
+                                                   Executor executor) {
+        return future.acceptEitherAsync(other, action, executor);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+        return future.runAfterEither(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+        return future.runAfterEitherAsync(other, action);
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return future.runAfterEitherAsync(other, action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenCompose(Function<? super V, ? extends CompletionStage<U>> fn) {
+        return future.thenCompose(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super V, ? extends CompletionStage<U>> fn) {
+        return future.thenComposeAsync(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super V, ? extends CompletionStage<U>> fn,
+                                                   Executor executor) {
+        return future.thenComposeAsync(fn, executor);
+    }
+
+    @Override
+    public CompletionStage<V> exceptionally(Function<Throwable, ? extends V> fn) {
+        return future.exceptionally(fn);
+    }
+
+    @Override
+    public CompletionStage<V> whenComplete(BiConsumer<? super V, ? super Throwable> action) {
+        return future.whenComplete(action);
+    }
+
+    @Override
+    public CompletionStage<V> whenCompleteAsync(BiConsumer<? super V, ? super Throwable> action) {
+        return future.whenCompleteAsync(action);
+    }
+
+    @Override
+    public CompletionStage<V> whenCompleteAsync(BiConsumer<? super V, ? super Throwable> action, Executor executor) {
+        return future.whenCompleteAsync(action, executor);
+    }
+
+    @Override
+    public <U> CompletionStage<U> handle(BiFunction<? super V, Throwable, ? extends U> fn) {
+        return future.handle(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super V, Throwable, ? extends U> fn) {
+        return future.handleAsync(fn);
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super V, Throwable, ? extends U> fn, Executor executor) {
+        return future.handleAsync(fn, executor);
+    }
+
+    @Override
+    public ResultView<Result, V> resultView() {
+        return this;
+    }
+
+    @Override
+    public PrecipiceFuture<Result, V> future() {
+        return this;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Cancellable cancellable = this.cancellable;
+        if (isDone() || (cancellable == null && cancelledResult == null)) {
+            return false;
+        }
+
+        isCancelled = true;
+        if (cancellable != null) {
+            cancellable.cancel();
+        }
+        if (cancelledResult != null) {
+            completeExceptionally(cancelledResult, new CancellationException());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return isCancelled || future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    @Override
+    public void await() throws InterruptedException {
+        try {
+            get();
+        } catch (ExecutionException | CancellationException e) {
+        }
+    }
+
+    @Override
+    public void await(long duration, TimeUnit unit) throws InterruptedException {
+        try {
+            get(duration, unit);
+        } catch (ExecutionException | CancellationException | TimeoutException e) {
+        }
+    }
+
+    @Override
+    public V getValue() {
+        return isDone() ? value : null;
+    }
+
+    @Override
+    public Throwable getError() {
+        return isDone() ? throwable : null;
+    }
+
+    @Override
+    public Result getResult() {
+        return isDone() ? result : null;
+    }
+
+    @Override
+    public void onSuccess(final PrecipiceFunction<Result, V> fn) {
+        future.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable ex) {
+                if (ex == null) {
+                    fn.apply(result, value);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onError(final PrecipiceFunction<Result, Throwable> fn) {
+        future.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable ex) {
+                if (ex != null) {
+                    fn.apply(result, throwable);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onComplete(final PrecipiceFunction<Result, ResultView<Result, V>> fn) {
+        future.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable ex) {
+                fn.apply(result, CompletableEventual.this);
+            }
+        });
+    }
+
+    @Override
+    public long startNanos() {
+        return startNanos;
+    }
+
+    @Override
+    public long permitCount() {
+        return permitCount;
+    }
+
+    public void setCancellable(Cancellable cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    public void internalOnComplete(PrecipiceFunction<Result, ExecutionContext> fn) {
+        internalCallback = fn;
+    }
+
+    private void executeInternalCallback(Result result) {
+        if (internalCallback != null) {
+            internalCallback.apply(result, this);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Class<CompletableEventual<?, ?>> completableEventualClass() {
+        return (Class) CompletableEventual.class;
+    }
+}
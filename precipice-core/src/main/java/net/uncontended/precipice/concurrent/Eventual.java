@@ -20,22 +20,50 @@ package net.uncontended.precipice.concurrent;
 import net.uncontended.precipice.*;
 
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link PrecipicePromise} and {@link PrecipiceFuture} that does not allocate any
+ * synchronization objects. Completion is claimed by a compare and swap on a single state field
+ * and published by a volatile write to that field. Threads that call {@link #get()} or
+ * {@link #await()} before completion push themselves onto a stack of waiters and park, so the
+ * stack is only allocated when something actually blocks.
+ * <p/>
+ * Any number of success, error and completion callbacks can be attached. They are kept on a
+ * lock free stack that the completing thread takes in a single swap, so each callback runs
+ * exactly once. Callbacks run in the order they were attached. A callback attached after
+ * completion runs immediately on the attaching thread.
+ */
 public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Result, V>, PrecipicePromise<Result, V>,
         ExecutionContext {
 
+    private static final int PENDING = 0;
+    private static final int COMPLETING = 1;
+    private static final int SUCCEEDED = 2;
+    private static final int FAILED = 3;
+
+    private static final AtomicIntegerFieldUpdater<Eventual<?, ?>> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(eventualClass(), "state");
+    private static final AtomicReferenceFieldUpdater<Eventual<?, ?>, WaitNode> WAITERS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(eventualClass(), WaitNode.class, "waiters");
+    private static final AtomicReferenceFieldUpdater<Eventual<?, ?>, CallbackNode> CALLBACKS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(eventualClass(), CallbackNode.class, "callbacks");
+    private static final CallbackNode COMPLETED = new CallbackNode(CallbackNode.ON_COMPLETE, null);
+
     private final long permitCount;
     private final long startNanos;
     private final Completable<Result, V> wrappedPromise;
-    private volatile V value;
-    private volatile Throwable throwable;
+    // Written before the volatile write to state that publishes them.
+    private Result result;
+    private V value;
+    private Throwable throwable;
+    private volatile int state = PENDING;
+    private volatile WaitNode waiters;
+    private volatile CallbackNode callbacks;
     private volatile Cancellable cancellable;
     private volatile boolean isCancelled = false;
-    private final CountDownLatch latch = new CountDownLatch(1);
-    private final AtomicReference<Result> result = new AtomicReference<>(null);
-    private final AtomicReference<PrecipiceFunction<Result, V>> successCallback = new AtomicReference<>();
-    private final AtomicReference<PrecipiceFunction<Result, Throwable>> errorCallback = new AtomicReference<>();
     private PrecipiceFunction<Result, ExecutionContext> internalCallback;
 
     public Eventual() {
@@ -62,40 +90,42 @@ public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Res
 
     @Override
     public boolean complete(Result result, V value) {
-        if (this.result.get() == null) {
-            if (this.result.compareAndSet(null, result)) {
-                this.value = value;
-                executeInternalCallback(result);
-                latch.countDown();
-                PrecipiceFunction<Result, V> cb = successCallback.get();
-                if (cb != null && successCallback.compareAndSet(cb, null)) {
-                    cb.apply(result, value);
-                }
-                if (wrappedPromise != null) {
+        if (state == PENDING && STATE_UPDATER.compareAndSet(this, PENDING, COMPLETING)) {
+            this.result = result;
+            this.value = value;
+            executeInternalCallback(result);
+            state = SUCCEEDED;
+            releaseWaiters();
+            executeCallbacks();
+            if (wrappedPromise != null) {
+                try {
                     wrappedPromise.complete(result, value);
+                } catch (Throwable t) {
+                    reportCallbackFailure(t);
                 }
-                return true;
             }
+            return true;
         }
         return false;
     }
 
     @Override
     public boolean completeExceptionally(Result result, Throwable exception) {
-        if (this.result.get() == null) {
-            if (this.result.compareAndSet(null, result)) {
-                throwable = exception;
-                executeInternalCallback(result);
-                latch.countDown();
-                PrecipiceFunction<Result, Throwable> cb = errorCallback.get();
-                if (cb != null && errorCallback.compareAndSet(cb, null)) {
-                    cb.apply(result, exception);
-                }
-                if (wrappedPromise != null) {
+        if (state == PENDING && STATE_UPDATER.compareAndSet(this, PENDING, COMPLETING)) {
+            this.result = result;
+            throwable = exception;
+            executeInternalCallback(result);
+            state = FAILED;
+            releaseWaiters();
+            executeCallbacks();
+            if (wrappedPromise != null) {
+                try {
                     wrappedPromise.completeExceptionally(result, exception);
+                } catch (Throwable t) {
+                    reportCallbackFailure(t);
                 }
-                return true;
             }
+            return true;
         }
         return false;
     }
@@ -112,26 +142,14 @@ public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Res
 
     @Override
     public V get() throws InterruptedException, ExecutionException {
-        latch.await();
-        if (value != null) {
-            return value;
-        } else if (isCancelled()) {
-            throw new CancellationException();
-        } else {
-            throw new ExecutionException(throwable);
-        }
+        awaitDone(false, 0L);
+        return report();
     }
 
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        if (latch.await(timeout, unit)) {
-            if (value != null) {
-                return value;
-            } else if (isCancelled()) {
-                throw new CancellationException();
-            } else {
-                throw new ExecutionException(throwable);
-            }
+        if (awaitDone(true, unit.toNanos(timeout))) {
+            return report();
         } else {
             throw new TimeoutException();
         }
@@ -139,7 +157,7 @@ public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Res
 
     @Override
     public boolean isDone() {
-        return result.get() != null;
+        return state > COMPLETING;
     }
 
     @Override
@@ -160,59 +178,42 @@ public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Res
 
     @Override
     public void await() throws InterruptedException {
-        latch.await();
+        awaitDone(false, 0L);
     }
 
     @Override
     public void await(long duration, TimeUnit unit) throws InterruptedException {
-        latch.await(duration, unit);
+        awaitDone(true, unit.toNanos(duration));
     }
 
     @Override
     public V getValue() {
-        return value;
+        return state > COMPLETING ? value : null;
     }
 
     @Override
     public Throwable getError() {
-        return throwable;
+        return state > COMPLETING ? throwable : null;
     }
 
     @Override
     public void onSuccess(PrecipiceFunction<Result, V> fn) {
-        // TODO: Decide whether it is okay to execute multiple callbacks.
-        Result localResult = result.get();
-        if (localResult != null && !localResult.isFailure()) {
-            fn.apply(localResult, value);
-        } else {
-            if (successCallback.compareAndSet(null, fn)) {
-                Result localResult2 = result.get();
-                if (localResult2 != null && !localResult2.isFailure() && successCallback.compareAndSet(fn, null)) {
-                    fn.apply(localResult2, value);
-                }
-            }
-
-        }
+        addCallback(CallbackNode.ON_SUCCESS, fn);
     }
 
     @Override
     public void onError(PrecipiceFunction<Result, Throwable> fn) {
-        Result localResult = result.get();
-        if (localResult != null && localResult.isFailure()) {
-            fn.apply(localResult, throwable);
-        } else {
-            if (errorCallback.compareAndSet(null, fn)) {
-                Result localResult2 = result.get();
-                if (localResult2 != null && localResult2.isFailure() && errorCallback.compareAndSet(fn, null)) {
-                    fn.apply(localResult2, throwable);
-                }
-            }
-        }
+        addCallback(CallbackNode.ON_ERROR, fn);
+    }
+
+    @Override
+    public void onComplete(PrecipiceFunction<Result, ResultView<Result, V>> fn) {
+        addCallback(CallbackNode.ON_COMPLETE, fn);
     }
 
     @Override
     public Result getResult() {
-        return result.get();
+        return state > COMPLETING ? result : null;
     }
 
     @Override
@@ -238,4 +239,199 @@ public class Eventual<Result extends Failable, V> implements PrecipiceFuture<Res
             internalCallback.apply(result, this);
         }
     }
+
+    private void addCallback(int type, PrecipiceFunction<Result, ?> fn) {
+        CallbackNode node = null;
+        for (; ; ) {
+            CallbackNode head = callbacks;
+            if (head == COMPLETED) {
+                safeExecute(type, fn);
+                return;
+            }
+            if (node == null) {
+                node = new CallbackNode(type, fn);
+            }
+            node.next = head;
+            if (CALLBACKS_UPDATER.compareAndSet(this, head, node)) {
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void executeCallbacks() {
+        CallbackNode head = CALLBACKS_UPDATER.getAndSet(this, COMPLETED);
+        if (head == null) {
+            return;
+        }
+
+        CallbackNode reversed = null;
+        while (head != null) {
+            CallbackNode next = head.next;
+            head.next = reversed;
+            reversed = head;
+            head = next;
+        }
+        for (CallbackNode node = reversed; node != null; node = node.next) {
+            safeExecute(node.type, (PrecipiceFunction<Result, ?>) node.fn);
+        }
+    }
+
+    /**
+     * Runs a single callback. A callback that throws is reported to the current thread's
+     * uncaught exception handler so that it cannot prevent the remaining callbacks from running.
+     */
+    private void safeExecute(int type, PrecipiceFunction<Result, ?> fn) {
+        try {
+            execute(type, fn);
+        } catch (Throwable t) {
+            reportCallbackFailure(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void execute(int type, PrecipiceFunction<Result, ?> fn) {
+        boolean succeeded = state == SUCCEEDED;
+        if (type == CallbackNode.ON_COMPLETE) {
+            ((PrecipiceFunction<Result, ResultView<Result, V>>) fn).apply(result, this);
+        } else if (type == CallbackNode.ON_SUCCESS && succeeded) {
+            ((PrecipiceFunction<Result, V>) fn).apply(result, value);
+        } else if (type == CallbackNode.ON_ERROR && !succeeded) {
+            ((PrecipiceFunction<Result, Throwable>) fn).apply(result, throwable);
+        }
+    }
+
+    private static void reportCallbackFailure(Throwable t) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Class<Eventual<?, ?>> eventualClass() {
+        return (Class) Eventual.class;
+    }
+
+    private V report() throws ExecutionException {
+        if (state == SUCCEEDED) {
+            return value;
+        } else if (isCancelled()) {
+            throw new CancellationException();
+        } else {
+            throw new ExecutionException(throwable);
+        }
+    }
+
+    private boolean awaitDone(boolean timed, long nanos) throws InterruptedException {
+        if (state > COMPLETING) {
+            return true;
+        }
+
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        WaitNode node = new WaitNode(Thread.currentThread());
+        for (; ; ) {
+            WaitNode head = waiters;
+            node.next = head;
+            if (WAITERS_UPDATER.compareAndSet(this, head, node)) {
+                break;
+            }
+        }
+
+        for (; ; ) {
+            if (state > COMPLETING) {
+                node.thread = null;
+                return true;
+            } else if (Thread.interrupted()) {
+                removeWaiter(node);
+                throw new InterruptedException();
+            }
+
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    removeWaiter(node);
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Unlinks a waiter that timed out or was interrupted, along with any other abandoned waiters
+     * found along the way. If a race with another unlinking thread is detected, the traversal is
+     * restarted.
+     */
+    private void removeWaiter(WaitNode node) {
+        node.thread = null;
+        retry:
+        for (; ; ) {
+            WaitNode pred = null;
+            WaitNode next;
+            for (WaitNode current = waiters; current != null; current = next) {
+                next = current.next;
+                if (current.thread != null) {
+                    pred = current;
+                } else if (pred != null) {
+                    pred.next = next;
+                    if (pred.thread == null) {
+                        continue retry;
+                    }
+                } else if (!WAITERS_UPDATER.compareAndSet(this, current, next)) {
+                    continue retry;
+                }
+            }
+            return;
+        }
+    }
+
+    int waiterCount() {
+        int count = 0;
+        for (WaitNode node = waiters; node != null; node = node.next) {
+            ++count;
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void releaseWaiters() {
+        if (waiters != null) {
+            WaitNode node = WAITERS_UPDATER.getAndSet(this, null);
+            while (node != null) {
+                Thread thread = node.thread;
+                if (thread != null) {
+                    node.thread = null;
+                    LockSupport.unpark(thread);
+                }
+                node = node.next;
+            }
+        }
+    }
+
+    static final class WaitNode {
+
+        volatile Thread thread;
+        volatile WaitNode next;
+
+        private WaitNode(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    static final class CallbackNode {
+
+        private static final int ON_SUCCESS = 0;
+        private static final int ON_ERROR = 1;
+        private static final int ON_COMPLETE = 2;
+
+        private final int type;
+        private final PrecipiceFunction<?, ?> fn;
+        private CallbackNode next;
+
+        private CallbackNode(int type, PrecipiceFunction<?, ?> fn) {
+            this.type = type;
+            this.fn = fn;
+        }
+    }
 }
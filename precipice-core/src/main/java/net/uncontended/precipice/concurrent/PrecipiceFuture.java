@@ -55,6 +55,18 @@ public interface PrecipiceFuture<Result extends Failable, V> extends Future<V>,
      */
     void onError(PrecipiceFunction<Result, Throwable> fn);
 
+    /**
+     * Attaches a callback to be executed when the future is completed, whether or not it was
+     * completed successfully. The function will be passed the result of the future and a view
+     * of the future's value or error.
+     * <p/>
+     * This method only is guaranteed to be safe if it is called once. Specific implementations
+     * may provide stronger guarantees.
+     *
+     * @param fn function to be executed
+     */
+    void onComplete(PrecipiceFunction<Result, ResultView<Result, V>> fn);
+
     /**
      * Block until the completion of the future.
      *
@@ -20,6 +20,7 @@ package net.uncontended.precipice.factories;
 import net.uncontended.precipice.Completable;
 import net.uncontended.precipice.Failable;
 import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.concurrent.CompletableEventual;
 import net.uncontended.precipice.concurrent.Eventual;
 import net.uncontended.precipice.rejected.RejectedException;
 
@@ -64,4 +65,31 @@ public final class Asynchronous {
         promise.internalOnComplete(guardRail.releaseFunction());
         return promise;
     }
+
+    public static <Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>, R> CompletableEventual<Result, R>
+    acquireSinglePermitAndCompletableFuture(GuardRail<Result, Rejected> guardRail) {
+        return acquirePermitsAndCompletableFuture(guardRail, 1L, null);
+    }
+
+    public static <Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>, R> CompletableEventual<Result, R>
+    acquirePermitsAndCompletableFuture(GuardRail<Result, Rejected> guardRail, long number) {
+        return acquirePermitsAndCompletableFuture(guardRail, number, null);
+    }
+
+    public static <Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>, R> CompletableEventual<Result, R>
+    acquirePermitsAndCompletableFuture(GuardRail<Result, Rejected> guardRail, long number, Result cancelledResult) {
+        long startTime = guardRail.getClock().nanoTime();
+        Rejected rejected = guardRail.acquirePermits(number, startTime);
+        if (rejected != null) {
+            throw new RejectedException(rejected);
+        }
+        return getCompletableFuture(guardRail, number, startTime, cancelledResult);
+    }
+
+    public static <Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>, R> CompletableEventual<Result, R>
+    getCompletableFuture(GuardRail<Result, Rejected> guardRail, long permitNumber, long nanoTime, Result cancelledResult) {
+        CompletableEventual<Result, R> promise = new CompletableEventual<>(permitNumber, nanoTime, cancelledResult, null);
+        promise.internalOnComplete(guardRail.releaseFunction());
+        return promise;
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.uncontended.precipice.keyed;
+
+import net.uncontended.precipice.BackPressure;
+
+import java.util.List;
+
+/**
+ * Creates the back pressure mechanisms for a key of a {@link KeyedGuardRails} that uses a
+ * {@link SharedMetricsTemplate}.
+ *
+ * @param <K>        the type of the key
+ * @param <Rejected> the rejected reason type
+ */
+public interface BackPressureTemplate<K, Rejected extends Enum<Rejected>> {
+
+    /**
+     * Creates the back pressure mechanisms for the key, in the order they should be added to the
+     * key's guard rail.
+     *
+     * @param key the key
+     * @return the back pressure mechanisms
+     */
+    List<BackPressure<Rejected>> create(K key);
+}
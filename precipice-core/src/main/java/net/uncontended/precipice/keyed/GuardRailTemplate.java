@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.keyed;
+
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRailBuilder;
+
+/**
+ * Configures the guard rail for a key of a {@link KeyedGuardRails}. The builder has already been
+ * given the key as its name and the registry's clock. Implementations add the back pressure and
+ * metrics for the key.
+ * <p/>
+ * Rails are created lazily and may be evicted and recreated, so configuration should be cheap.
+ * For many keys, {@link SharedMetricsTemplate} gives every rail the same aggregate metrics.
+ *
+ * @param <K>        the type of the key
+ * @param <Result>   the result type
+ * @param <Rejected> the rejected reason type
+ */
+public interface GuardRailTemplate<K, Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>> {
+
+    void configure(K key, GuardRailBuilder<Result, Rejected> builder);
+}
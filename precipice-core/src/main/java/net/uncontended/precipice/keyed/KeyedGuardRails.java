@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.keyed;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registry of guard rails by key, for example one per tenant or host. Rails are created lazily
+ * from a {@link GuardRailTemplate}. Looking up an existing key is a read of a concurrent map and
+ * does not lock.
+ * <p/>
+ * Rails that have been idle for longer than the time to live are evicted by {@link #evict(long)},
+ * which also evicts the least recently used rails once the registry is close to its max size.
+ * Eviction should be run periodically with {@link #scheduleEviction(ScheduledExecutorService, long,
+ * TimeUnit)}. If a new rail takes the registry over its max size before the next eviction, idle
+ * rails are evicted inline, in no particular order, until it is back at the max size. A rail is
+ * only evicted if it has no permits in flight, so a key's limits are never split across an old
+ * rail and its replacement. The registry adds a back pressure mechanism to every rail to count
+ * the permits in flight. The count includes permits released through the rail directly, for
+ * example by a promise created by the factories.
+ * <p/>
+ * A {@link SharedMetricsTemplate} can be used to share one set of aggregate metrics between all of
+ * the keys.
+ * <p/>
+ * Permits should be acquired through {@link #acquirePermits(Object, long, long)}. It handles the
+ * case where a rail is evicted between being looked up and its permits being acquired. A rail
+ * returned by {@link #get(Object)} should be used right away and not cached by the caller.
+ *
+ * @param <K>        the type of the key
+ * @param <Result>   the result type
+ * @param <Rejected> the rejected reason type
+ */
+public class KeyedGuardRails<K, Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>> {
+
+    private static final long EVICTED = Long.MIN_VALUE / 2;
+
+    private final ConcurrentHashMap<K, Entry<Result, Rejected>> rails = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final GuardRailTemplate<K, Result, Rejected> template;
+    private final int maxSize;
+    private final int evictToSize;
+    private final long ttlNanos;
+    private final Clock clock;
+
+    public KeyedGuardRails(GuardRailTemplate<K, Result, Rejected> template, int maxSize, long ttl, TimeUnit unit) {
+        this(template, maxSize, ttl, unit, SystemTime.getInstance());
+    }
+
+    public KeyedGuardRails(GuardRailTemplate<K, Result, Rejected> template, int maxSize, long ttl, TimeUnit unit,
+                           Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be at least 1. Found: " + maxSize);
+        } else if (ttl <= 0) {
+            throw new IllegalArgumentException("Time to live must be greater than 0. Found: " + ttl);
+        }
+        this.template = template;
+        this.maxSize = maxSize;
+        this.evictToSize = maxSize - Math.max(maxSize / 16, 1);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+    }
+
+    public GuardRail<Result, Rejected> get(K key) {
+        return entry(key, clock.nanoTime()).guardRail;
+    }
+
+    public GuardRail<Result, Rejected> getIfPresent(K key) {
+        Entry<Result, Rejected> entry = rails.get(key);
+        return entry == null ? null : entry.guardRail;
+    }
+
+    /**
+     * Acquires permits from the rail for a key, creating the rail if necessary. If the
+     * acquisition is successful, null is returned and the permits must be released through the
+     * returned rail's key, for example with {@link #get(Object)} or a promise from the factories.
+     *
+     * @param key      the key
+     * @param number   of permits to acquire
+     * @param nanoTime currentInterval nano time
+     * @return the rejected reason
+     */
+    public Rejected acquirePermits(K key, long number, long nanoTime) {
+        for (; ; ) {
+            Entry<Result, Rejected> entry = entry(key, nanoTime);
+            Rejected rejected = entry.guardRail.acquirePermits(number, nanoTime);
+            if (rejected != null || !entry.tracker.isEvicted()) {
+                return rejected;
+            }
+            entry.guardRail.releasePermitsWithoutResult(number, nanoTime);
+        }
+    }
+
+    public long inFlight(K key) {
+        Entry<Result, Rejected> entry = rails.get(key);
+        return entry == null ? 0 : Math.max(entry.tracker.inFlight.get(), 0);
+    }
+
+    public int size() {
+        return rails.size();
+    }
+
+    /**
+     * Evicts the rails that have been idle for longer than the time to live and, if the registry
+     * is within 1/16 of its max size, the least recently used rails until it is below that. Rails
+     * with permits in flight are not evicted.
+     *
+     * @param nanoTime currentInterval nano time
+     * @return the number of rails evicted
+     */
+    public int evict(long nanoTime) {
+        if (!evicting.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            int evicted = 0;
+            List<Map.Entry<K, Entry<Result, Rejected>>> candidates = new ArrayList<>();
+            for (Map.Entry<K, Entry<Result, Rejected>> e : rails.entrySet()) {
+                Entry<Result, Rejected> entry = e.getValue();
+                if (nanoTime - entry.lastAccessNanos > ttlNanos) {
+                    if (tryEvict(e.getKey(), entry)) {
+                        ++evicted;
+                    }
+                } else {
+                    candidates.add(e);
+                }
+            }
+
+            int toEvict = rails.size() - evictToSize;
+            if (toEvict > 0) {
+                Collections.sort(candidates, leastRecentlyUsed);
+                for (int i = 0; i < candidates.size() && toEvict > 0; ++i) {
+                    Map.Entry<K, Entry<Result, Rejected>> e = candidates.get(i);
+                    if (tryEvict(e.getKey(), e.getValue())) {
+                        ++evicted;
+                        --toEvict;
+                    }
+                }
+            }
+            return evicted;
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Schedules {@link #evict(long)} to run periodically on the executor, so that idle rails are
+     * evicted off the request path. The returned future can be cancelled to stop the eviction.
+     *
+     * @param executor the executor to run the eviction on
+     * @param period   the period between evictions
+     * @param unit     the unit of the period
+     * @return the future of the scheduled eviction
+     */
+    public ScheduledFuture<?> scheduleEviction(ScheduledExecutorService executor, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Eviction period must be greater than 0. Found: " + period);
+        }
+        return executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                evict(clock.nanoTime());
+            }
+        }, period, period, unit);
+    }
+
+    private Entry<Result, Rejected> entry(K key, long nanoTime) {
+        Entry<Result, Rejected> entry = rails.get(key);
+        if (entry == null) {
+            entry = create(key, nanoTime);
+        } else if (entry.lastAccessNanos != nanoTime) {
+            entry.lastAccessNanos = nanoTime;
+        }
+        return entry;
+    }
+
+    private Entry<Result, Rejected> create(K key, long nanoTime) {
+        InFlightTracker<Rejected> tracker = new InFlightTracker<>();
+        GuardRailBuilder<Result, Rejected> builder = new GuardRailBuilder<Result, Rejected>()
+                .name(String.valueOf(key))
+                .clock(clock);
+        template.configure(key, builder);
+        builder.addBackPressure("keyed-in-flight", tracker);
+        Entry<Result, Rejected> newEntry = new Entry<>(builder.build(), tracker, nanoTime);
+
+        Entry<Result, Rejected> existing = rails.putIfAbsent(key, newEntry);
+        if (existing != null) {
+            return existing;
+        }
+        if (rails.size() > maxSize) {
+            evictToMaxSize(key);
+        }
+        return newEntry;
+    }
+
+    private void evictToMaxSize(K newKey) {
+        Iterator<Map.Entry<K, Entry<Result, Rejected>>> iterator = rails.entrySet().iterator();
+        while (rails.size() > maxSize && iterator.hasNext()) {
+            Map.Entry<K, Entry<Result, Rejected>> e = iterator.next();
+            if (!newKey.equals(e.getKey())) {
+                tryEvict(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private boolean tryEvict(K key, Entry<Result, Rejected> entry) {
+        if (entry.tracker.inFlight.compareAndSet(0, EVICTED)) {
+            rails.remove(key, entry);
+            return true;
+        }
+        return false;
+    }
+
+    private final Comparator<Map.Entry<K, Entry<Result, Rejected>>> leastRecentlyUsed =
+            new Comparator<Map.Entry<K, Entry<Result, Rejected>>>() {
+                @Override
+                public int compare(Map.Entry<K, Entry<Result, Rejected>> o1,
+                                   Map.Entry<K, Entry<Result, Rejected>> o2) {
+                    return Long.compare(o1.getValue().lastAccessNanos - o2.getValue().lastAccessNanos, 0);
+                }
+            };
+
+    private static class Entry<Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>> {
+
+        private final GuardRail<Result, Rejected> guardRail;
+        private final InFlightTracker<Rejected> tracker;
+        private volatile long lastAccessNanos;
+
+        private Entry(GuardRail<Result, Rejected> guardRail, InFlightTracker<Rejected> tracker, long nanoTime) {
+            this.guardRail = guardRail;
+            this.tracker = tracker;
+            this.lastAccessNanos = nanoTime;
+        }
+    }
+
+    private static class InFlightTracker<Rejected extends Enum<Rejected>> implements BackPressure<Rejected> {
+
+        private final AtomicLong inFlight = new AtomicLong(0);
+
+        @Override
+        public Rejected acquirePermit(long number, long nanoTime) {
+            inFlight.getAndAdd(number);
+            return null;
+        }
+
+        @Override
+        public void releasePermit(long number, long nanoTime) {
+            inFlight.getAndAdd(-number);
+        }
+
+        @Override
+        public void releasePermit(long number, Failable result, long nanoTime) {
+            inFlight.getAndAdd(-number);
+        }
+
+        @Override
+        public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+        }
+
+        private boolean isEvicted() {
+            return inFlight.get() < 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.uncontended.precipice.keyed;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.circuit.CircuitBreaker;
+import net.uncontended.precipice.circuit.ConsecutiveFailureBreaker;
+import net.uncontended.precipice.circuit.NoOpCircuitBreaker;
+import net.uncontended.precipice.metrics.counts.WritableCounts;
+import net.uncontended.precipice.metrics.latency.NoOpLatency;
+import net.uncontended.precipice.metrics.latency.WritableLatency;
+
+/**
+ * A template that gives every key's rail the same metrics instances, so a registry of many keys
+ * allocates one set of metrics rather than one per key. The metrics are aggregate-only: they
+ * count the results, rejections and latency of all of the keys together.
+ * <p/>
+ * The back pressure for each key is created by a {@link BackPressureTemplate} and is not shared.
+ * Circuit breakers that read their guard rail's result counts would see the results of every key
+ * and trip for all keys when one fails, so they are rejected. A {@link ConsecutiveFailureBreaker}
+ * only tracks the results released through its own rail and can be used.
+ * <p/>
+ * If no latency metrics are supplied, a single no-op latency is shared instead of the per rail
+ * default.
+ *
+ * @param <K>        the type of the key
+ * @param <Result>   the result type
+ * @param <Rejected> the rejected reason type
+ */
+public class SharedMetricsTemplate<K, Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>>
+        implements GuardRailTemplate<K, Result, Rejected> {
+
+    private final WritableCounts<Result> resultCounts;
+    private final WritableCounts<Rejected> rejectedCounts;
+    private final WritableLatency<Result> resultLatency;
+    private final BackPressureTemplate<K, Rejected> backPressure;
+
+    public SharedMetricsTemplate(WritableCounts<Result> resultCounts, WritableCounts<Rejected> rejectedCounts,
+                                 BackPressureTemplate<K, Rejected> backPressure) {
+        this(resultCounts, rejectedCounts, new NoOpLatency<>(resultCounts.getMetricClazz()), backPressure);
+    }
+
+    public SharedMetricsTemplate(WritableCounts<Result> resultCounts, WritableCounts<Rejected> rejectedCounts,
+                                 WritableLatency<Result> resultLatency, BackPressureTemplate<K, Rejected> backPressure) {
+        if (resultCounts == null) {
+            throw new IllegalArgumentException("Result counts are required.");
+        } else if (rejectedCounts == null) {
+            throw new IllegalArgumentException("Rejected counts are required.");
+        } else if (resultLatency == null) {
+            throw new IllegalArgumentException("Result latency is required.");
+        } else if (backPressure == null) {
+            throw new IllegalArgumentException("Back pressure template is required.");
+        }
+        this.resultCounts = resultCounts;
+        this.rejectedCounts = rejectedCounts;
+        this.resultLatency = resultLatency;
+        this.backPressure = backPressure;
+    }
+
+    @Override
+    public void configure(K key, GuardRailBuilder<Result, Rejected> builder) {
+        builder.resultCounts(resultCounts)
+                .rejectedCounts(rejectedCounts)
+                .resultLatency(resultLatency);
+        for (BackPressure<Rejected> mechanism : backPressure.create(key)) {
+            if (mechanism instanceof CircuitBreaker && !(mechanism instanceof ConsecutiveFailureBreaker)
+                    && !(mechanism instanceof NoOpCircuitBreaker)) {
+                throw new IllegalArgumentException("Circuit breakers that read shared result counts would trip "
+                        + "for every key. Found: " + mechanism.getClass().getName());
+            }
+            builder.addBackPressure(mechanism);
+        }
+    }
+}
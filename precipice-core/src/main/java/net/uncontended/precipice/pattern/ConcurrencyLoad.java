@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Precipice;
+import net.uncontended.precipice.semaphore.PrecipiceSemaphore;
+
+import java.util.List;
+
+/**
+ * A {@link LoadMetric} that reads the current concurrency level of a {@link PrecipiceSemaphore}
+ * registered with each precipice's guard rail. The precipices must be in the same order as in
+ * the {@link Pattern}.
+ */
+public class ConcurrencyLoad implements LoadMetric {
+
+    private final PrecipiceSemaphore[] semaphores;
+
+    public ConcurrencyLoad(List<? extends Precipice<?, ?>> precipices) {
+        semaphores = new PrecipiceSemaphore[precipices.size()];
+        for (int i = 0; i < semaphores.length; ++i) {
+            semaphores[i] = findSemaphore(precipices.get(i));
+        }
+    }
+
+    @Override
+    public long load(int index) {
+        return semaphores[index].currentConcurrencyLevel();
+    }
+
+    static PrecipiceSemaphore findSemaphore(Precipice<?, ?> precipice) {
+        for (Object backPressure : precipice.guardRail().getBackPressure().values()) {
+            if (backPressure instanceof PrecipiceSemaphore) {
+                return (PrecipiceSemaphore) backPressure;
+            }
+        }
+        throw new IllegalArgumentException("Precipice " + precipice.guardRail().getName()
+                + " does not have a PrecipiceSemaphore.");
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.Precipice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link KeyedPatternStrategy} that places each index on a hash ring many times, as virtual
+ * nodes. A key is hashed onto the ring and the indices are tried in the order their nodes follow
+ * the key. A key therefore stays with the same index, falling back to the next index on the ring
+ * if that one rejects. Adding or removing an index only moves the keys next to its nodes.
+ * <p/>
+ * The ring is precomputed as sorted arrays, so a lookup is a binary search. Requests without a
+ * key start from a random point on the ring.
+ * <p/>
+ * The virtual nodes are placed by hashing a node id for each index. The ids should have stable
+ * hash codes, such as host or guard rail names, so a key maps to the same precipice regardless of
+ * the order of the pattern's pool or the process it runs in. If only a size is given, the index
+ * itself is used as the id, which is only stable if the pool order is.
+ */
+public class ConsistentHashRing implements KeyedPatternStrategy {
+
+    private final int size;
+    private final int maxAcquireAttempts;
+    private final long[] ringHashes;
+    private final int[] ringIndices;
+
+    public ConsistentHashRing(int size, int virtualNodes) {
+        this(size, virtualNodes, size);
+    }
+
+    public ConsistentHashRing(int size, int virtualNodes, int maxAcquireAttempts) {
+        this(indexIds(size), virtualNodes, maxAcquireAttempts);
+    }
+
+    public ConsistentHashRing(List<?> nodeIds, int virtualNodes) {
+        this(nodeIds, virtualNodes, nodeIds.size());
+    }
+
+    /**
+     * Creates a ring with a node id for each index of the pattern's pool, in the same order.
+     *
+     * @param nodeIds            the node ids, with stable hash codes
+     * @param virtualNodes       the number of virtual nodes per index
+     * @param maxAcquireAttempts the maximum number of indices to try
+     */
+    public ConsistentHashRing(List<?> nodeIds, int virtualNodes, int maxAcquireAttempts) {
+        int size = nodeIds.size();
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be at least 1. Found: " + virtualNodes);
+        } else if (maxAcquireAttempts < 1 || maxAcquireAttempts > size) {
+            throw new IllegalArgumentException("Max acquire attempts must be in [1, size]. Found: "
+                    + maxAcquireAttempts);
+        }
+        this.size = size;
+        this.maxAcquireAttempts = maxAcquireAttempts;
+
+        int nodeCount = size * virtualNodes;
+        final long[] hashes = new long[nodeCount];
+        for (int i = 0; i < size; ++i) {
+            long id = nodeIds.get(i).hashCode();
+            for (int j = 0; j < virtualNodes; ++j) {
+                hashes[i * virtualNodes + j] = mix((id << 32) | j);
+            }
+        }
+        Integer[] sorted = new Integer[nodeCount];
+        for (int i = 0; i < nodeCount; ++i) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(hashes[o1], hashes[o2]);
+            }
+        });
+
+        ringHashes = new long[nodeCount];
+        ringIndices = new int[nodeCount];
+        for (int i = 0; i < nodeCount; ++i) {
+            int node = sorted[i];
+            ringHashes[i] = hashes[node];
+            ringIndices[i] = node / virtualNodes;
+        }
+    }
+
+    /**
+     * Creates a ring using the guard rail name of each precipice as its node id. The precipices
+     * must be in the same order as in the {@link Pattern}.
+     *
+     * @param precipices   the precipices of the pattern
+     * @param virtualNodes the number of virtual nodes per precipice
+     * @return the ring
+     */
+    public static ConsistentHashRing fromGuardRailNames(List<? extends Precipice<?, ?>> precipices,
+                                                        int virtualNodes) {
+        List<String> names = new ArrayList<>(precipices.size());
+        for (Precipice<?, ?> precipice : precipices) {
+            names.add(precipice.guardRail().getName());
+        }
+        return new ConsistentHashRing(names, virtualNodes);
+    }
+
+    @Override
+    public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(maxAcquireAttempts);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] indices) {
+        return walk(ThreadLocalRandom.current().nextInt(ringHashes.length), indices);
+    }
+
+    @Override
+    public int nextIndices(Object key, int[] indices) {
+        long hash = mix(key.hashCode());
+        int position = Arrays.binarySearch(ringHashes, hash);
+        if (position < 0) {
+            position = -(position + 1);
+        }
+        return walk(position == ringHashes.length ? 0 : position, indices);
+    }
+
+    @Override
+    public int acquireCount() {
+        return 1;
+    }
+
+    private static List<Integer> indexIds(int size) {
+        List<Integer> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    private int walk(int start, int[] indices) {
+        int count = 0;
+        for (int i = 0; i < ringIndices.length && count < maxAcquireAttempts; ++i) {
+            int index = ringIndices[(start + i) % ringIndices.length];
+            if (!contains(indices, count, index)) {
+                indices[count++] = index;
+            }
+        }
+        return count;
+    }
+
+    private static boolean contains(int[] indices, int count, int index) {
+        for (int i = 0; i < count; ++i) {
+            if (indices[i] == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long mix(long value) {
+        // The 64 bit finalizer from MurmurHash3.
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
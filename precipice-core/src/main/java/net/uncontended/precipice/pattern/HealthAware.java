@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.circuit.CircuitBreaker;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A strategy that filters the order of another strategy by the health of each index's circuit
+ * breaker. The availability of every index is kept in a bitmap that is read and updated without
+ * locking. Indices whose breakers are open are left out of the order, so a request does not pay
+ * to acquire and be rejected by them, and their rejected counts are not inflated.
+ * <p/>
+ * An open index is still offered once per probe interval, after the available indices. This lets
+ * its breaker admit the test request it needs to close.
+ * <p/>
+ * Each index's guard rail must be built with the {@link #tracker(int)} for its index, added after
+ * its circuit breaker. The tracker updates the bitmap whenever the breaker may have changed state,
+ * which is when a permit is acquired or released.
+ */
+public class HealthAware implements PrimitivePatternStrategy {
+
+    private final PrimitivePatternStrategy delegate;
+    private final int size;
+    private final long probeIntervalNanos;
+    private final Clock clock;
+    private final AtomicLongArray unavailable;
+    private final AtomicLongArray nextProbeNanos;
+    private final ThreadLocal<int[]> scratch;
+
+    public HealthAware(PrimitivePatternStrategy delegate, int size, long probeInterval, TimeUnit unit) {
+        this(delegate, size, probeInterval, unit, SystemTime.getInstance());
+    }
+
+    public HealthAware(PrimitivePatternStrategy delegate, final int size, long probeInterval, TimeUnit unit,
+                       Clock clock) {
+        this.delegate = delegate;
+        this.size = size;
+        this.probeIntervalNanos = unit.toNanos(probeInterval);
+        this.clock = clock;
+        this.unavailable = new AtomicLongArray((size + 63) >>> 6);
+        this.nextProbeNanos = new AtomicLongArray(size);
+        this.scratch = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[size];
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(size);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] orderToTry) {
+        int[] candidates = scratch.get();
+        int candidateCount = delegate.nextIndices(candidates);
+
+        int count = 0;
+        int probeIndex = -1;
+        for (int i = 0; i < candidateCount; ++i) {
+            int index = candidates[i];
+            if (isAvailable(index)) {
+                orderToTry[count++] = index;
+            } else if (probeIndex == -1 && claimProbe(index)) {
+                probeIndex = index;
+            }
+        }
+        if (probeIndex != -1) {
+            orderToTry[count++] = probeIndex;
+        }
+        return count;
+    }
+
+    @Override
+    public int acquireCount() {
+        return delegate.acquireCount();
+    }
+
+    public boolean isAvailable(int index) {
+        return (unavailable.get(index >>> 6) & (1L << index)) == 0;
+    }
+
+    public void setAvailable(int index, boolean available) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        for (; ; ) {
+            long current = unavailable.get(word);
+            long next = available ? current & ~bit : current | bit;
+            if (current == next) {
+                return;
+            }
+            if (unavailable.compareAndSet(word, current, next)) {
+                if (!available) {
+                    nextProbeNanos.set(index, clock.nanoTime() + probeIntervalNanos);
+                }
+                return;
+            }
+        }
+    }
+
+    public <Rejected extends Enum<Rejected>> BackPressure<Rejected> tracker(int index) {
+        return new AvailabilityTracker<>(this, index);
+    }
+
+    private boolean claimProbe(int index) {
+        long nanoTime = clock.nanoTime();
+        long next = nextProbeNanos.get(index);
+        return nanoTime - next >= 0 && nextProbeNanos.compareAndSet(index, next, nanoTime + probeIntervalNanos);
+    }
+
+    private static class AvailabilityTracker<Rejected extends Enum<Rejected>> implements BackPressure<Rejected> {
+
+        private final HealthAware strategy;
+        private final int index;
+        private volatile CircuitBreaker<Rejected> breaker;
+
+        private AvailabilityTracker(HealthAware strategy, int index) {
+            this.strategy = strategy;
+            this.index = index;
+        }
+
+        @Override
+        public Rejected acquirePermit(long number, long nanoTime) {
+            refresh();
+            return null;
+        }
+
+        @Override
+        public void releasePermit(long number, long nanoTime) {
+            refresh();
+        }
+
+        @Override
+        public void releasePermit(long number, Failable result, long nanoTime) {
+            refresh();
+        }
+
+        @Override
+        public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+            for (BackPressure<Rejected> backPressure : guardRail.getBackPressure().values()) {
+                if (backPressure instanceof CircuitBreaker) {
+                    breaker = (CircuitBreaker<Rejected>) backPressure;
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("GuardRail " + guardRail.getName() + " does not have a CircuitBreaker.");
+        }
+
+        private void refresh() {
+            boolean available = !breaker.isOpen();
+            if (available != strategy.isAvailable(index)) {
+                strategy.setAvailable(index, available);
+            }
+        }
+    }
+}
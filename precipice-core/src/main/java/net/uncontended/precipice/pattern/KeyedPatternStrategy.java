@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+/**
+ * A {@link PrimitivePatternStrategy} that can also order indices by a request key. Requests with
+ * equal keys are given the same order, which {@link Pattern#getPrecipices(Object, long, long)}
+ * uses to keep them on the same precipice while it accepts permits.
+ */
+public interface KeyedPatternStrategy extends PrimitivePatternStrategy {
+
+    /**
+     * Writes the indices to try for the key, in order, to the start of the array. The array is at
+     * least as long as the number of precipices in the pattern.
+     *
+     * @param key     the key of the request
+     * @param indices the array to write the indices to
+     * @return the number of indices written
+     */
+    int nextIndices(Object key, int[] indices);
+}
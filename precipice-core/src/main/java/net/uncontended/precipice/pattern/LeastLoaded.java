@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A strategy that tries indices in order of increasing load, as reported by a
+ * {@link LoadMetric}. Ties are broken by starting from a random index. The ordering is an
+ * insertion sort into arrays owned by the calling thread, so ranking does not allocate.
+ * <p/>
+ * Combined with a {@link PeakEwmaLoad}, slow replicas are tried last until their outstanding
+ * requests drain or their latency recovers.
+ */
+public class LeastLoaded implements PrimitivePatternStrategy {
+
+    private final LoadMetric loadMetric;
+    private final int size;
+    private final int maxAcquireAttempts;
+    private final ThreadLocal<long[]> loads;
+
+    public LeastLoaded(int size, LoadMetric loadMetric) {
+        this(size, size, loadMetric);
+    }
+
+    public LeastLoaded(final int size, int maxAcquireAttempts, LoadMetric loadMetric) {
+        if (maxAcquireAttempts < 1 || maxAcquireAttempts > size) {
+            throw new IllegalArgumentException("Max acquire attempts must be in [1, size]. Found: "
+                    + maxAcquireAttempts);
+        }
+        this.size = size;
+        this.maxAcquireAttempts = maxAcquireAttempts;
+        this.loadMetric = loadMetric;
+        this.loads = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[size];
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(maxAcquireAttempts);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] orderToTry) {
+        long[] loads = this.loads.get();
+        int offset = ThreadLocalRandom.current().nextInt(size);
+        int sorted = 0;
+        for (int i = 0; i < size; ++i) {
+            int index = (offset + i) % size;
+            long load = loadMetric.load(index);
+            int position = Math.min(sorted, maxAcquireAttempts);
+            while (position > 0 && loads[position - 1] > load) {
+                --position;
+            }
+            if (position < maxAcquireAttempts) {
+                int last = Math.min(sorted, maxAcquireAttempts - 1);
+                for (int j = last; j > position; --j) {
+                    loads[j] = loads[j - 1];
+                    orderToTry[j] = orderToTry[j - 1];
+                }
+                loads[position] = load;
+                orderToTry[position] = index;
+                ++sorted;
+            }
+        }
+        return maxAcquireAttempts;
+    }
+
+    @Override
+    public int acquireCount() {
+        return 1;
+    }
+}
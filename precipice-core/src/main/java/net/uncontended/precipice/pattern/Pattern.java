@@ -30,7 +30,9 @@ public class Pattern<Result extends Enum<Result> & Failable, C extends Precipice
     private final List<C> pool;
 
     private final PatternStrategy strategy;
+    private final PrimitivePatternStrategy primitiveStrategy;
     private final SequenceFactory<C> sequenceFactory;
+    private final ThreadLocal<int[]> indexBuffer;
 
     public Pattern(Collection<C> precipices, PatternStrategy strategy) {
         this(precipices, strategy, new AllocatingSequenceFactory<C>());
@@ -48,6 +50,19 @@ public class Pattern<Result extends Enum<Result> & Failable, C extends Precipice
         this.pool = pool;
         this.strategy = strategy;
         this.sequenceFactory = sequenceFactory;
+        if (strategy instanceof PrimitivePatternStrategy) {
+            final int size = pool.size();
+            primitiveStrategy = (PrimitivePatternStrategy) strategy;
+            indexBuffer = new ThreadLocal<int[]>() {
+                @Override
+                protected int[] initialValue() {
+                    return new int[size];
+                }
+            };
+        } else {
+            primitiveStrategy = null;
+            indexBuffer = null;
+        }
     }
 
     public Sequence<C> getPrecipices(long permits) {
@@ -61,18 +76,92 @@ public class Pattern<Result extends Enum<Result> & Failable, C extends Precipice
         return precipices;
     }
 
+    /**
+     * Acquires permits from the precipices the strategy maps the key to, so requests with the
+     * same key go to the same precipices while they accept permits. The strategy must be a
+     * {@link KeyedPatternStrategy}.
+     *
+     * @param key      the key of the request
+     * @param permits  the number of permits to acquire
+     * @param nanoTime the current nano time
+     * @return the precipices the permits were acquired from
+     */
+    public Sequence<C> getPrecipices(Object key, long permits, long nanoTime) {
+        if (!supportsKeys()) {
+            throw new IllegalStateException("Strategy does not support keys.");
+        }
+        WritableSequence<C> precipices = getPrecipiceSequence();
+        int[] indices = indexBuffer.get();
+        int count = ((KeyedPatternStrategy) strategy).nextIndices(key, indices);
+        acquireInOrder(indices, count, permits, nanoTime, precipices);
+
+        return precipices;
+    }
+
+    /**
+     * Returns whether the strategy is a {@link KeyedPatternStrategy} that can map a key to precipices.
+     */
+    public boolean supportsKeys() {
+        return strategy instanceof KeyedPatternStrategy;
+    }
+
+    /**
+     * Returns the first precipice in the strategy's order that grants the permits, skipping the
+     * excluded precipice. This is used to pick a single precipice at a time, for example when
+     * hedging a request that is already in flight on the excluded precipice.
+     *
+     * @param permits  the number of permits to acquire
+     * @param nanoTime the current nano time
+     * @param excluded a precipice that should not be returned, may be null
+     * @return the precipice the permits were acquired from or null if none granted them
+     */
+    public C getPrecipice(long permits, long nanoTime, C excluded) {
+        if (primitiveStrategy != null) {
+            int[] indices = indexBuffer.get();
+            int count = primitiveStrategy.nextIndices(indices);
+            for (int i = 0; i < count; ++i) {
+                C precipice = pool.get(indices[i]);
+                if (precipice != excluded && precipice.guardRail().acquirePermits(permits, nanoTime) == null) {
+                    return precipice;
+                }
+            }
+        } else {
+            for (Integer index : strategy.nextIndices()) {
+                C precipice = pool.get(index);
+                if (precipice != excluded && precipice.guardRail().acquirePermits(permits, nanoTime) == null) {
+                    return precipice;
+                }
+            }
+        }
+        return null;
+    }
+
     public List<C> getAllPrecipices() {
         return pool;
     }
 
     private void setupSequence(long permits, long nanoTime, WritableSequence<C> precipices) {
+        if (primitiveStrategy != null) {
+            int[] indices = indexBuffer.get();
+            int count = primitiveStrategy.nextIndices(indices);
+            acquireInOrder(indices, count, permits, nanoTime, precipices);
+        } else {
+            int acquiredCount = 0;
+            for (Integer index : strategy.nextIndices()) {
+                if (tryAcquire(index, permits, nanoTime, precipices)) {
+                    ++acquiredCount;
+                }
+                if (acquiredCount == strategy.acquireCount()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void acquireInOrder(int[] indices, int count, long permits, long nanoTime, WritableSequence<C> precipices) {
         int acquiredCount = 0;
-        for (Integer index : strategy.nextIndices()) {
-            C precipice = pool.get(index);
-            GuardRail<Result, ?> guardRail = precipice.guardRail();
-            Object rejected = guardRail.acquirePermits(permits, nanoTime);
-            if (rejected == null) {
-                precipices.add(precipice);
+        for (int i = 0; i < count; ++i) {
+            if (tryAcquire(indices[i], permits, nanoTime, precipices)) {
                 ++acquiredCount;
             }
             if (acquiredCount == strategy.acquireCount()) {
@@ -81,6 +170,17 @@ public class Pattern<Result extends Enum<Result> & Failable, C extends Precipice
         }
     }
 
+    private boolean tryAcquire(int index, long permits, long nanoTime, WritableSequence<C> precipices) {
+        C precipice = pool.get(index);
+        GuardRail<Result, ?> guardRail = precipice.guardRail();
+        Object rejected = guardRail.acquirePermits(permits, nanoTime);
+        if (rejected == null) {
+            precipices.add(precipice);
+            return true;
+        }
+        return false;
+    }
+
     private WritableSequence<C> getPrecipiceSequence() {
         return sequenceFactory.getSequence(strategy.acquireCount());
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.metrics.latency.WritableLatency;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A {@link LoadMetric} that ranks precipices by their peak EWMA latency multiplied by their
+ * outstanding requests plus one. The latency average jumps straight to any latency higher than it
+ * and decays towards lower latencies with the configured decay time. A replica that slows down is
+ * therefore penalized at once and regains traffic gradually.
+ * <p/>
+ * Each precipice's guard rail must be built with the {@link #latency(int, WritableLatency)} wrapper
+ * as its result latency and the {@link #backPressure(int)} as a back pressure mechanism, using its
+ * index in the pattern. The average is updated on the guard rail's release path without locking.
+ */
+public class PeakEwmaLoad implements LoadMetric {
+
+    private final Node[] nodes;
+    private final double decayNanos;
+    private final Clock clock;
+
+    public PeakEwmaLoad(int size, long decayTime, TimeUnit unit) {
+        this(size, decayTime, unit, SystemTime.getInstance());
+    }
+
+    public PeakEwmaLoad(int size, long decayTime, TimeUnit unit, Clock clock) {
+        if (decayTime <= 0) {
+            throw new IllegalArgumentException("Decay time must be greater than 0. Found: " + decayTime);
+        }
+        this.decayNanos = unit.toNanos(decayTime);
+        this.clock = clock;
+        this.nodes = new Node[size];
+        long nanoTime = clock.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            nodes[i] = new Node(nanoTime);
+        }
+    }
+
+    @Override
+    public long load(int index) {
+        Node node = nodes[index];
+        return (long) (node.cost(clock.nanoTime(), decayNanos) * (node.outstanding.get() + 1));
+    }
+
+    public long outstanding(int index) {
+        return nodes[index].outstanding.get();
+    }
+
+    public <Rejected extends Enum<Rejected>> BackPressure<Rejected> backPressure(int index) {
+        return new OutstandingTracker<>(nodes[index]);
+    }
+
+    public <Result extends Enum<Result>> WritableLatency<Result> latency(int index, WritableLatency<Result> delegate) {
+        return new ObservingLatency<>(nodes[index], decayNanos, delegate);
+    }
+
+    private static class Node {
+
+        private static final AtomicLongFieldUpdater<Node> costUpdater =
+                AtomicLongFieldUpdater.newUpdater(Node.class, "costBits");
+
+        private final AtomicLong outstanding = new AtomicLong(0);
+        private volatile long costBits = Double.doubleToRawLongBits(0.0);
+        private volatile long stamp;
+
+        private Node(long nanoTime) {
+            this.stamp = nanoTime;
+        }
+
+        private double cost(long nanoTime, double decayNanos) {
+            double cost = Double.longBitsToDouble(costBits);
+            long elapsed = nanoTime - stamp;
+            if (elapsed <= 0) {
+                return cost;
+            }
+            return cost * Math.exp(-elapsed / decayNanos);
+        }
+
+        private void observe(long nanoLatency, long nanoTime, double decayNanos) {
+            for (; ; ) {
+                long bits = costBits;
+                double cost = Double.longBitsToDouble(bits);
+                long elapsed = Math.max(nanoTime - stamp, 0);
+                double newCost;
+                if (nanoLatency > cost) {
+                    newCost = nanoLatency;
+                } else {
+                    double weight = Math.exp(-elapsed / decayNanos);
+                    newCost = cost * weight + nanoLatency * (1.0 - weight);
+                }
+                if (costUpdater.compareAndSet(this, bits, Double.doubleToRawLongBits(newCost))) {
+                    if (nanoTime - stamp > 0) {
+                        stamp = nanoTime;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class OutstandingTracker<Rejected extends Enum<Rejected>> implements BackPressure<Rejected> {
+
+        private final Node node;
+
+        private OutstandingTracker(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Rejected acquirePermit(long number, long nanoTime) {
+            node.outstanding.getAndAdd(number);
+            return null;
+        }
+
+        @Override
+        public void releasePermit(long number, long nanoTime) {
+            node.outstanding.getAndAdd(-number);
+        }
+
+        @Override
+        public void releasePermit(long number, Failable result, long nanoTime) {
+            node.outstanding.getAndAdd(-number);
+        }
+
+        @Override
+        public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+        }
+    }
+
+    private static class ObservingLatency<Result extends Enum<Result>> implements WritableLatency<Result> {
+
+        private final Node node;
+        private final double decayNanos;
+        private final WritableLatency<Result> delegate;
+
+        private ObservingLatency(Node node, double decayNanos, WritableLatency<Result> delegate) {
+            this.node = node;
+            this.decayNanos = decayNanos;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(Result metric, long number, long nanoLatency, long nanoTime) {
+            node.observe(nanoLatency, nanoTime, decayNanos);
+            delegate.write(metric, number, nanoLatency, nanoTime);
+        }
+
+        @Override
+        public Class<Result> getMetricClazz() {
+            return delegate.getMetricClazz();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A strategy that samples two random indices and tries the one with the lower load first, then
+ * the other. If more acquire attempts are allowed, the remaining indices follow in order from a
+ * random offset. Picking the less loaded of two random choices spreads load nearly as well as
+ * picking the least loaded overall, while only reading two loads per request.
+ */
+public class PowerOfTwoChoices implements PrimitivePatternStrategy {
+
+    private final LoadMetric loadMetric;
+    private final int size;
+    private final int maxAcquireAttempts;
+
+    public PowerOfTwoChoices(int size, LoadMetric loadMetric) {
+        this(size, size, loadMetric);
+    }
+
+    public PowerOfTwoChoices(int size, int maxAcquireAttempts, LoadMetric loadMetric) {
+        if (maxAcquireAttempts < 1 || maxAcquireAttempts > size) {
+            throw new IllegalArgumentException("Max acquire attempts must be in [1, size]. Found: "
+                    + maxAcquireAttempts);
+        }
+        this.size = size;
+        this.maxAcquireAttempts = maxAcquireAttempts;
+        this.loadMetric = loadMetric;
+    }
+
+    @Override
+    public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(maxAcquireAttempts);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] orderToTry) {
+        if (size == 1) {
+            orderToTry[0] = 0;
+            return 1;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            ++second;
+        }
+        if (loadMetric.load(second) < loadMetric.load(first)) {
+            int temp = first;
+            first = second;
+            second = temp;
+        }
+
+        orderToTry[0] = first;
+        if (maxAcquireAttempts > 1) {
+            orderToTry[1] = second;
+            int next = random.nextInt(size);
+            for (int i = 2; i < maxAcquireAttempts; ++i) {
+                while (next == first || next == second) {
+                    next = (next + 1) % size;
+                }
+                orderToTry[i] = next;
+                next = (next + 1) % size;
+            }
+        }
+        return maxAcquireAttempts;
+    }
+
+    @Override
+    public int acquireCount() {
+        return 1;
+    }
+}
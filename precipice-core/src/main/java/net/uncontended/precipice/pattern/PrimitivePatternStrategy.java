@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+/**
+ * A {@link PatternStrategy} that can write the indices to try into a caller supplied array. A
+ * {@link Pattern} uses this instead of {@link #nextIndices()} when it is available, so selecting
+ * precipices does not allocate.
+ */
+public interface PrimitivePatternStrategy extends PatternStrategy {
+
+    /**
+     * Writes the indices to try, in order, to the start of the array. The array is at least as
+     * long as the number of precipices in the pattern.
+     *
+     * @param indices the array to write the indices to
+     * @return the number of indices written
+     */
+    int nextIndices(int[] indices);
+}
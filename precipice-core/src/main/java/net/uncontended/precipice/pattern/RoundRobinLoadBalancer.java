@@ -21,9 +21,7 @@ import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class RoundRobinLoadBalancer implements PatternStrategy {
-
-    // TODO: The arrays can probably be cached
+public class RoundRobinLoadBalancer implements PrimitivePatternStrategy {
 
     private final long flipPoint;
     private final int size;
@@ -39,6 +37,10 @@ public class RoundRobinLoadBalancer implements PatternStrategy {
     }
 
     public RoundRobinLoadBalancer(int size, int maxAcquireAttempts, AtomicLong counter) {
+        if (maxAcquireAttempts < 1 || maxAcquireAttempts > size) {
+            throw new IllegalArgumentException("Max acquire attempts must be in [1, size]. Found: "
+                    + maxAcquireAttempts);
+        }
         this.size = size;
         this.maxAcquireAttempts = maxAcquireAttempts;
         this.counter = counter;
@@ -47,20 +49,23 @@ public class RoundRobinLoadBalancer implements PatternStrategy {
 
     @Override
     public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(maxAcquireAttempts);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] orderToTry) {
         long index = counter.getAndIncrement();
 
         if (index >= flipPoint) {
             resetCounter(index);
         }
 
-        SingleReaderArrayIterable iterable = new SingleReaderArrayIterable(maxAcquireAttempts);
-
-        Integer[] orderToTry = iterable.getIndices();
         for (int i = 0; i < maxAcquireAttempts; ++i) {
             orderToTry[i] = (int) ((index + i) % size);
         }
-        shuffleTail(orderToTry);
-        return iterable;
+        shuffleTail(orderToTry, maxAcquireAttempts);
+        return maxAcquireAttempts;
     }
 
     @Override
@@ -68,10 +73,10 @@ public class RoundRobinLoadBalancer implements PatternStrategy {
         return 1;
     }
 
-    private static void shuffleTail(Integer[] orderToTry) {
+    private static void shuffleTail(int[] orderToTry, int count) {
         int index;
         Random random = ThreadLocalRandom.current();
-        for (int i = orderToTry.length - 1; i > 1; i--) {
+        for (int i = count - 1; i > 1; i--) {
             index = random.nextInt(i) + 1;
             if (index != i) {
                 orderToTry[index] ^= orderToTry[i];
@@ -20,16 +20,16 @@ package net.uncontended.precipice.pattern;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
-public class Shotgun implements PatternStrategy {
+public class Shotgun implements PrimitivePatternStrategy {
 
     private final int acquireCount;
     private final int serviceCount;
-    private final Integer[] serviceIndices;
+    private final int[] serviceIndices;
 
     public Shotgun(int serviceCount, int acquireCount) {
         this.serviceCount = serviceCount;
         this.acquireCount = acquireCount;
-        this.serviceIndices = new Integer[serviceCount];
+        this.serviceIndices = new int[serviceCount];
         for (int i = 0; i < serviceCount; ++i) {
             serviceIndices[i] = i;
         }
@@ -37,13 +37,15 @@ public class Shotgun implements PatternStrategy {
 
     @Override
     public Iterable<Integer> nextIndices() {
-        SingleReaderArrayIterable iterable = new SingleReaderArrayIterable(serviceCount);
-        Integer[] orderToTry = iterable.getIndices();
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(serviceCount);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
 
+    @Override
+    public int nextIndices(int[] orderToTry) {
         System.arraycopy(serviceIndices, 0, orderToTry, 0, serviceCount);
-        shuffle(orderToTry);
-
-        return iterable;
+        shuffle(orderToTry, serviceCount);
+        return serviceCount;
     }
 
     @Override
@@ -51,10 +53,10 @@ public class Shotgun implements PatternStrategy {
         return acquireCount;
     }
 
-    private static void shuffle(Integer[] orderToTry) {
+    private static void shuffle(int[] orderToTry, int count) {
         int index;
         Random random = ThreadLocalRandom.current();
-        for (int i = orderToTry.length - 1; i > 0; i--) {
+        for (int i = count - 1; i > 0; i--) {
             index = random.nextInt(i + 1);
             if (index != i) {
                 orderToTry[index] ^= orderToTry[i];
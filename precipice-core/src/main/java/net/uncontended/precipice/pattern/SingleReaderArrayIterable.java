@@ -21,6 +21,13 @@ import java.util.Iterator;
 
 public class SingleReaderArrayIterable implements Iterator<Integer>, Iterable<Integer> {
 
+    private static final ThreadLocal<int[]> boxingBuffer = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
     private int size;
     private Integer[] indices;
     private int index = 0;
@@ -56,4 +63,30 @@ public class SingleReaderArrayIterable implements Iterator<Integer>, Iterable<In
     public void reset() {
         index = 0;
     }
+
+    /**
+     * Returns a thread-local buffer of at least the size requested. It is used by the boxed
+     * {@link PatternStrategy#nextIndices()} of primitive strategies to collect the indices before
+     * they are copied by {@link #boxed(int[], int)}, and must not be held past that call.
+     *
+     * @param size the minimum size of the buffer
+     * @return the buffer
+     */
+    static int[] boxingBuffer(int size) {
+        int[] buffer = boxingBuffer.get();
+        if (buffer.length < size) {
+            buffer = new int[size];
+            boxingBuffer.set(buffer);
+        }
+        return buffer;
+    }
+
+    static SingleReaderArrayIterable boxed(int[] indices, int count) {
+        SingleReaderArrayIterable iterable = new SingleReaderArrayIterable(count);
+        Integer[] boxed = iterable.getIndices();
+        for (int i = 0; i < count; ++i) {
+            boxed[i] = indices[i];
+        }
+        return iterable;
+    }
 }
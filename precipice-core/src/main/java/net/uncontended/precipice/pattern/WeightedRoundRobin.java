@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.Precipice;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A strategy that spreads requests in proportion to per-index weights, using the smooth weighted
+ * round robin algorithm from nginx. The schedule for a full cycle is precomputed whenever the
+ * weights change, so selecting an index is one increment of an atomic counter and an array read.
+ * The smooth schedule interleaves heavier indices with lighter ones rather than sending bursts to
+ * the heaviest.
+ * <p/>
+ * If the first index rejects, the following indices are tried in order. An index with a weight of
+ * zero receives no traffic. The schedule is a full cycle divided by the greatest common divisor of
+ * the weights, so weights should be kept small relative to each other.
+ */
+public class WeightedRoundRobin implements PrimitivePatternStrategy {
+
+    public static final int MAX_DERIVED_WEIGHT = 1024;
+
+    private final int size;
+    private final int maxAcquireAttempts;
+    private final AtomicLong counter = new AtomicLong(0);
+    private volatile Schedule schedule;
+
+    public WeightedRoundRobin(int[] weights) {
+        this(weights, weights.length);
+    }
+
+    public WeightedRoundRobin(int[] weights, int maxAcquireAttempts) {
+        if (maxAcquireAttempts < 1 || maxAcquireAttempts > weights.length) {
+            throw new IllegalArgumentException("Max acquire attempts must be in [1, size]. Found: "
+                    + maxAcquireAttempts);
+        }
+        this.size = weights.length;
+        this.maxAcquireAttempts = maxAcquireAttempts;
+        this.schedule = new Schedule(weights);
+    }
+
+    /**
+     * Creates a strategy weighted by the max concurrency level of the {@link
+     * net.uncontended.precipice.semaphore.PrecipiceSemaphore} registered with each precipice's
+     * guard rail. The precipices must be in the same order as in the {@link Pattern}.
+     * <p/>
+     * The levels are scaled so that the largest weight is at most {@value #MAX_DERIVED_WEIGHT},
+     * which bounds the length of the schedule. A nonzero level is never scaled below a weight of
+     * one. An unlimited semaphore is weighted the same as the largest bounded level.
+     *
+     * @param precipices the precipices of the pattern
+     * @return the strategy
+     */
+    public static WeightedRoundRobin fromConcurrencyLevels(List<? extends Precipice<?, ?>> precipices) {
+        long[] levels = new long[precipices.size()];
+        long maxLevel = 0;
+        for (int i = 0; i < levels.length; ++i) {
+            long level = ConcurrencyLoad.findSemaphore(precipices.get(i)).maxConcurrencyLevel();
+            levels[i] = level < 0 ? -1 : Math.min(level, Integer.MAX_VALUE);
+            maxLevel = Math.max(maxLevel, levels[i]);
+        }
+        if (maxLevel == 0) {
+            maxLevel = MAX_DERIVED_WEIGHT;
+        }
+
+        int[] weights = new int[levels.length];
+        for (int i = 0; i < weights.length; ++i) {
+            long level = levels[i] < 0 ? maxLevel : levels[i];
+            if (maxLevel > MAX_DERIVED_WEIGHT && level > 0) {
+                level = Math.max(level * MAX_DERIVED_WEIGHT / maxLevel, 1);
+            }
+            weights[i] = (int) level;
+        }
+        return new WeightedRoundRobin(weights);
+    }
+
+    public void setWeights(int[] weights) {
+        if (weights.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " weights. Found: " + weights.length);
+        }
+        schedule = new Schedule(weights);
+    }
+
+    public int[] getWeights() {
+        return schedule.weights.clone();
+    }
+
+    @Override
+    public Iterable<Integer> nextIndices() {
+        int[] orderToTry = SingleReaderArrayIterable.boxingBuffer(maxAcquireAttempts);
+        return SingleReaderArrayIterable.boxed(orderToTry, nextIndices(orderToTry));
+    }
+
+    @Override
+    public int nextIndices(int[] orderToTry) {
+        Schedule schedule = this.schedule;
+        long position = counter.getAndIncrement() & Long.MAX_VALUE;
+        int first = schedule.order[(int) (position % schedule.order.length)];
+        orderToTry[0] = first;
+
+        int count = 1;
+        for (int i = 1; i < size && count < maxAcquireAttempts; ++i) {
+            int index = (first + i) % size;
+            if (schedule.weights[index] > 0) {
+                orderToTry[count++] = index;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int acquireCount() {
+        return 1;
+    }
+
+    private static class Schedule {
+
+        private final int[] weights;
+        private final int[] order;
+
+        private Schedule(int[] weights) {
+            int divisor = 0;
+            for (int weight : weights) {
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Weights cannot be negative. Found: " + weight);
+                }
+                divisor = gcd(divisor, weight);
+            }
+            if (divisor == 0) {
+                throw new IllegalArgumentException("At least one weight must be greater than 0.");
+            }
+
+            long total = 0;
+            for (int weight : weights) {
+                total += weight / divisor;
+            }
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Weights are too large to schedule.");
+            }
+
+            this.weights = weights.clone();
+            this.order = new int[(int) total];
+            long[] current = new long[weights.length];
+            for (int i = 0; i < order.length; ++i) {
+                int best = -1;
+                for (int j = 0; j < weights.length; ++j) {
+                    current[j] += weights[j] / divisor;
+                    if (best == -1 || current[j] > current[best]) {
+                        best = j;
+                    }
+                }
+                current[best] -= total;
+                order[i] = best;
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int temp = a % b;
+                a = b;
+                b = temp;
+            }
+            return a;
+        }
+    }
+}
@@ -78,6 +78,6 @@ public class RateLimiter<Rejected extends Enum<Rejected>> implements BackPressur
 
     @Override
     public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
-
+        rolloverTime.set(guardRail.getClock().nanoTime() + nanoDuration);
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.retry;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.metrics.IntervalIterator;
+import net.uncontended.precipice.metrics.counts.Counters;
+import net.uncontended.precipice.metrics.counts.PartitionedCount;
+import net.uncontended.precipice.metrics.counts.RollingCounts;
+import net.uncontended.precipice.metrics.tools.CircularBuffer;
+import net.uncontended.precipice.metrics.tools.RollingMetrics;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BackPressure} that limits retries to a ratio of first attempts. It never rejects
+ * permit acquisitions made through the {@link GuardRail}. Instead it counts them, and each first
+ * attempt over the window deposits {@code ratio} retry tokens. Retries withdraw a token by
+ * calling {@link #acquireRetry(long)} before acquiring their permits from the guard rail.
+ * <p/>
+ * The counts are kept in a rolling window, so deposits expire once they leave the window. A
+ * minimum number of retries per window is always allowed, so that a lightly loaded service can
+ * still retry.
+ * <p/>
+ * The budget is checked without locking, so concurrent retries may briefly overdraw it by a few
+ * tokens.
+ *
+ * @param <Rejected> the type for rejection reasons
+ */
+public class RetryBudget<Rejected extends Enum<Rejected>> implements BackPressure<Rejected> {
+
+    private static final int BUCKETS = 10;
+
+    private final Rejected rejectedReason;
+    private final double ratio;
+    private final long minRetries;
+    private final long windowNanos;
+    private volatile RollingCounts<Attempt> counts;
+
+    public RetryBudget(Rejected rejectedReason, double ratio, long minRetries, long window, TimeUnit unit) {
+        if (ratio < 0.0) {
+            throw new IllegalArgumentException("Ratio cannot be negative. Found: " + ratio);
+        } else if (minRetries < 0) {
+            throw new IllegalArgumentException("Min retries cannot be negative. Found: " + minRetries);
+        } else if (unit.toNanos(window) < BUCKETS) {
+            throw new IllegalArgumentException("Window must be at least " + BUCKETS + " nanoseconds.");
+        }
+        this.rejectedReason = rejectedReason;
+        this.ratio = ratio;
+        this.minRetries = minRetries;
+        this.windowNanos = unit.toNanos(window);
+        this.counts = createCounts(SystemTime.getInstance());
+    }
+
+    @Override
+    public Rejected acquirePermit(long number, long nanoTime) {
+        counts.write(Attempt.ATTEMPT, number, nanoTime);
+        return null;
+    }
+
+    @Override
+    public void releasePermit(long number, long nanoTime) {
+    }
+
+    @Override
+    public void releasePermit(long number, Failable result, long nanoTime) {
+    }
+
+    @Override
+    public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+        counts = createCounts(guardRail.getClock());
+    }
+
+    /**
+     * Withdraws a token for a retry. If the budget is exhausted, the rejected reason is
+     * returned. If a token is withdrawn, null is returned and the caller may retry.
+     *
+     * @param nanoTime currentInterval nano time
+     * @return the reason for rejection if the budget is exhausted
+     */
+    public Rejected acquireRetry(long nanoTime) {
+        if (availableRetries(nanoTime) < 1) {
+            return rejectedReason;
+        }
+        counts.write(Attempt.RETRY, 1L, nanoTime);
+        return null;
+    }
+
+    /**
+     * Returns a token withdrawn by {@link #acquireRetry(long)} for a retry that was never
+     * executed, for example because the guard rail rejected it.
+     *
+     * @param nanoTime currentInterval nano time
+     */
+    public void refundRetry(long nanoTime) {
+        counts.write(Attempt.RETRY, -1L, nanoTime);
+    }
+
+    public long availableRetries(long nanoTime) {
+        long attempts = 0;
+        long retries = 0;
+        IntervalIterator<PartitionedCount<Attempt>> intervals = counts.intervals(nanoTime);
+        intervals.limit(windowNanos, TimeUnit.NANOSECONDS);
+        while (intervals.hasNext()) {
+            PartitionedCount<Attempt> interval = intervals.next();
+            attempts += interval.getCount(Attempt.ATTEMPT);
+            retries += interval.getCount(Attempt.RETRY);
+        }
+        // Retries also acquire permits through the guard rail, so they are not first attempts.
+        long firstAttempts = Math.max(attempts - retries, 0);
+        return minRetries + (long) (firstAttempts * ratio) - retries;
+    }
+
+    private RollingCounts<Attempt> createCounts(Clock clock) {
+        long nanosPerBucket = windowNanos / BUCKETS;
+        CircularBuffer<PartitionedCount<Attempt>> buffer = new CircularBuffer<>(BUCKETS + 1, nanosPerBucket,
+                clock.nanoTime());
+        return new RollingCounts<>(new RollingMetrics<>(Counters.longAdder(Attempt.class), buffer, clock));
+    }
+
+    private enum Attempt {
+        ATTEMPT,
+        RETRY
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.retry;
+
+/**
+ * Describes how failed executions are retried. An execution is attempted at most
+ * {@code maxAttempts} times. Before each retry a token is withdrawn from the {@link RetryBudget}
+ * and the retry is delayed by an exponential backoff, starting at the initial backoff and capped
+ * at the max backoff.
+ *
+ * @param <Rejected> the type for rejection reasons
+ */
+public class RetryPolicy<Rejected extends Enum<Rejected>> {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final RetryBudget<Rejected> budget;
+
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, RetryBudget<Rejected> budget) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1. Found: " + maxAttempts);
+        } else if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoffs must satisfy 0 <= initial <= max. Found: "
+                    + initialBackoffMillis + ", " + maxBackoffMillis);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.budget = budget;
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public RetryBudget<Rejected> budget() {
+        return budget;
+    }
+
+    /**
+     * Returns the delay before a retry.
+     *
+     * @param retry the number of the retry, starting at 1
+     * @return the delay in milliseconds
+     */
+    public long backoffMillis(int retry) {
+        int shift = Math.min(retry - 1, 62);
+        long backoff = initialBackoffMillis << shift;
+        if (backoff < 0 || (backoff >> shift) != initialBackoffMillis) {
+            return maxBackoffMillis;
+        }
+        return Math.min(backoff, maxBackoffMillis);
+    }
+}
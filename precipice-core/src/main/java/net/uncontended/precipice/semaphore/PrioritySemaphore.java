@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.semaphore;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A semaphore that sheds less critical callers first as it fills up. Each priority tier has a
+ * concurrency limit. A caller in tier i is only admitted while the concurrency level after
+ * acquiring stays within limits[i], so the capacity above that limit is reserved for more
+ * critical tiers. Tier 0 is the most critical and its limit is the max concurrency level.
+ * <p/>
+ * Each tier has its own rejected reason, so rejections are counted per tier in the guard rail's
+ * rejected counts. Callers that do not provide a priority, and priorities beyond the last tier,
+ * are treated as the least critical tier.
+ */
+public class PrioritySemaphore<Rejected extends Enum<Rejected>> implements BackPressure<Rejected>, PrecipiceSemaphore {
+
+    private final AtomicLong concurrencyLevel = new AtomicLong(0);
+    private final long[] limits;
+    private final Rejected[] reasons;
+
+    public PrioritySemaphore(long[] limits, Rejected[] reasons) {
+        if (limits.length == 0 || limits.length != reasons.length) {
+            throw new IllegalArgumentException("Each tier requires a limit and a rejected reason.");
+        }
+        for (int i = 1; i < limits.length; ++i) {
+            if (limits[i] > limits[i - 1]) {
+                throw new IllegalArgumentException("Less critical tiers cannot have higher limits. Found: "
+                        + limits[i] + " after " + limits[i - 1]);
+            }
+        }
+        this.limits = limits.clone();
+        this.reasons = reasons.clone();
+    }
+
+    @Override
+    public Rejected acquirePermit(long number, long nanoTime) {
+        return acquirePermit(number, nanoTime, limits.length - 1);
+    }
+
+    @Override
+    public Rejected acquirePermit(long number, long nanoTime, int priority) {
+        int tier = Math.min(Math.max(priority, 0), limits.length - 1);
+        long limit = limits[tier];
+        for (; ; ) {
+            long current = concurrencyLevel.get();
+            long proposed = current + number;
+            if (proposed > limit) {
+                return reasons[tier];
+            } else if (concurrencyLevel.compareAndSet(current, proposed)) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void releasePermit(long number, long nanoTime) {
+        concurrencyLevel.getAndAdd(-number);
+    }
+
+    @Override
+    public void releasePermit(long number, Failable result, long nanoTime) {
+        concurrencyLevel.getAndAdd(-number);
+    }
+
+    @Override
+    public <Result extends Enum<Result> & Failable> void registerGuardRail(GuardRail<Result, Rejected> guardRail) {
+    }
+
+    public int tierCount() {
+        return limits.length;
+    }
+
+    public long remainingCapacity(int priority) {
+        int tier = Math.min(Math.max(priority, 0), limits.length - 1);
+        return Math.max(limits[tier] - concurrencyLevel.get(), 0);
+    }
+
+    @Override
+    public long maxConcurrencyLevel() {
+        return limits[0];
+    }
+
+    @Override
+    public long remainingCapacity() {
+        return Math.max(limits[0] - concurrencyLevel.get(), 0);
+    }
+
+    @Override
+    public long currentConcurrencyLevel() {
+        return concurrencyLevel.get();
+    }
+}
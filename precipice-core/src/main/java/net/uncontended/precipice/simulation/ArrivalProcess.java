@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import java.util.Random;
+
+/**
+ * A model of when requests arrive in a {@link LoadSimulator}.
+ */
+@FunctionalInterface
+public interface ArrivalProcess {
+
+    /**
+     * Returns the number of nanoseconds until the next request arrives.
+     *
+     * @param random   the simulation source of randomness
+     * @param nanoTime current virtual nano time
+     * @return nanoseconds until the next arrival
+     */
+    long nextArrivalNanos(Random random, long nanoTime);
+}
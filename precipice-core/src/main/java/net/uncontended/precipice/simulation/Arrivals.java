@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public final class Arrivals {
+
+    private Arrivals() {
+    }
+
+    public static ArrivalProcess constant(double perSecond) {
+        return new Constant(perSecond);
+    }
+
+    public static ArrivalProcess poisson(double perSecond) {
+        return new Poisson(perSecond);
+    }
+
+    /**
+     * Returns a process that alternates between a base rate and a burst rate.
+     *
+     * @param basePerSecond  arrival rate outside of bursts
+     * @param burstPerSecond arrival rate during bursts
+     * @param period         the length of one base plus burst cycle
+     * @param burstLength    the length of the burst at the end of each cycle
+     * @param unit           the unit of the period and burst length
+     * @return the arrival process
+     */
+    public static ArrivalProcess bursty(double basePerSecond, double burstPerSecond, long period, long burstLength,
+                                        TimeUnit unit) {
+        return new Bursty(new Poisson(basePerSecond), new Poisson(burstPerSecond), unit.toNanos(period),
+                unit.toNanos(burstLength));
+    }
+
+    private static long nanosBetween(double perSecond) {
+        if (perSecond <= 0) {
+            throw new IllegalArgumentException("Arrival rate must be greater than 0. Found: " + perSecond);
+        }
+        return (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    }
+
+    private static class Constant implements ArrivalProcess {
+
+        private final long nanosBetween;
+
+        private Constant(double perSecond) {
+            nanosBetween = Math.max(nanosBetween(perSecond), 1);
+        }
+
+        @Override
+        public long nextArrivalNanos(Random random, long nanoTime) {
+            return nanosBetween;
+        }
+    }
+
+    private static class Poisson implements ArrivalProcess {
+
+        private final double meanNanos;
+
+        private Poisson(double perSecond) {
+            meanNanos = nanosBetween(perSecond);
+        }
+
+        @Override
+        public long nextArrivalNanos(Random random, long nanoTime) {
+            return Math.max((long) (-Math.log(1.0 - random.nextDouble()) * meanNanos), 1);
+        }
+    }
+
+    private static class Bursty implements ArrivalProcess {
+
+        private final ArrivalProcess base;
+        private final ArrivalProcess burst;
+        private final long periodNanos;
+        private final long burstStartNanos;
+
+        private Bursty(ArrivalProcess base, ArrivalProcess burst, long periodNanos, long burstNanos) {
+            this.base = base;
+            this.burst = burst;
+            this.periodNanos = periodNanos;
+            this.burstStartNanos = periodNanos - burstNanos;
+        }
+
+        @Override
+        public long nextArrivalNanos(Random random, long nanoTime) {
+            long positionInPeriod = Math.floorMod(nanoTime, periodNanos);
+            if (positionInPeriod >= burstStartNanos) {
+                return burst.nextArrivalNanos(random, nanoTime);
+            }
+            return base.nextArrivalNanos(random, nanoTime);
+        }
+    }
+}
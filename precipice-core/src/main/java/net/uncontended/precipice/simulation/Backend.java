@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import java.util.Random;
+
+/**
+ * A model of the backend a {@link LoadSimulator} sends requests to.
+ */
+public interface Backend {
+
+    /**
+     * Returns how long the request will take to complete.
+     *
+     * @param random   the simulation source of randomness
+     * @param inFlight the number of requests currently in flight, including this one
+     * @param nanoTime current virtual nano time
+     * @return the latency in nanoseconds
+     */
+    long latencyNanos(Random random, long inFlight, long nanoTime);
+
+    /**
+     * Returns whether the request will fail.
+     *
+     * @param random   the simulation source of randomness
+     * @param inFlight the number of requests currently in flight, including this one
+     * @param nanoTime current virtual nano time
+     * @return if the request fails
+     */
+    boolean fails(Random random, long inFlight, long nanoTime);
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public final class Backends {
+
+    private Backends() {
+    }
+
+    public static Backend fixed(long latency, TimeUnit unit, double failureRate) {
+        return new Fixed(unit.toNanos(latency), failureRate);
+    }
+
+    public static Backend exponential(long meanLatency, TimeUnit unit, double failureRate) {
+        return new Exponential(unit.toNanos(meanLatency), failureRate);
+    }
+
+    /**
+     * Returns a backend with exponentially distributed latency that slows down once more than
+     * capacity requests are in flight. Latency grows in proportion to the overload, and so does
+     * the failure rate, up to 100%.
+     *
+     * @param meanLatency mean latency when the backend is not overloaded
+     * @param unit        the unit of the mean latency
+     * @param capacity    the number of concurrent requests the backend can handle
+     * @param failureRate failure rate when the backend is not overloaded
+     * @return the backend
+     */
+    public static Backend saturating(long meanLatency, TimeUnit unit, long capacity, double failureRate) {
+        return new Saturating(new Exponential(unit.toNanos(meanLatency), failureRate), capacity);
+    }
+
+    private static boolean fails(Random random, double failureRate) {
+        return failureRate > 0 && random.nextDouble() < failureRate;
+    }
+
+    private static class Fixed implements Backend {
+
+        private final long latencyNanos;
+        private final double failureRate;
+
+        private Fixed(long latencyNanos, double failureRate) {
+            this.latencyNanos = latencyNanos;
+            this.failureRate = failureRate;
+        }
+
+        @Override
+        public long latencyNanos(Random random, long inFlight, long nanoTime) {
+            return latencyNanos;
+        }
+
+        @Override
+        public boolean fails(Random random, long inFlight, long nanoTime) {
+            return Backends.fails(random, failureRate);
+        }
+    }
+
+    private static class Exponential implements Backend {
+
+        private final long meanNanos;
+        private final double failureRate;
+
+        private Exponential(long meanNanos, double failureRate) {
+            this.meanNanos = meanNanos;
+            this.failureRate = failureRate;
+        }
+
+        @Override
+        public long latencyNanos(Random random, long inFlight, long nanoTime) {
+            return Math.max((long) (-Math.log(1.0 - random.nextDouble()) * meanNanos), 1);
+        }
+
+        @Override
+        public boolean fails(Random random, long inFlight, long nanoTime) {
+            return Backends.fails(random, failureRate);
+        }
+    }
+
+    private static class Saturating implements Backend {
+
+        private final Exponential base;
+        private final long capacity;
+
+        private Saturating(Exponential base, long capacity) {
+            this.base = base;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public long latencyNanos(Random random, long inFlight, long nanoTime) {
+            long latency = base.latencyNanos(random, inFlight, nanoTime);
+            if (inFlight > capacity) {
+                return (long) (latency * ((double) inFlight / capacity));
+            }
+            return latency;
+        }
+
+        @Override
+        public boolean fails(Random random, long inFlight, long nanoTime) {
+            if (inFlight > capacity) {
+                double overload = (double) (inFlight - capacity) / capacity;
+                return Backends.fails(random, Math.min(base.failureRate + overload, 1.0));
+            }
+            return base.fails(random, inFlight, nanoTime);
+        }
+    }
+}
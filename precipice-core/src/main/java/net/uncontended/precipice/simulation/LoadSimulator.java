@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.result.TimeoutableResult;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A discrete event simulator that drives a {@link GuardRail} with virtual time. Requests arrive
+ * according to an {@link ArrivalProcess} and are served by a {@link Backend} model. Nothing
+ * sleeps, so simulating minutes of load takes a fraction of a second of CPU.
+ * <p/>
+ * The guard rail must have been built with the same {@link VirtualClock} that is passed to the
+ * simulator, and so should any metrics or back pressure mechanisms that take a clock. Requests
+ * that take longer than the timeout complete with {@link TimeoutableResult#TIMEOUT} when the
+ * timeout elapses. Given the same seed and configuration, every run produces the same report.
+ * <p/>
+ * This class is not thread safe.
+ */
+public class LoadSimulator<Rejected extends Enum<Rejected>> {
+
+    private final GuardRail<TimeoutableResult, Rejected> guardRail;
+    private final VirtualClock clock;
+    private final ArrivalProcess arrivals;
+    private final Backend backend;
+    private final long timeoutNanos;
+    private final Random random;
+    private final PriorityQueue<Completion> inFlight = new PriorityQueue<>();
+
+    public LoadSimulator(GuardRail<TimeoutableResult, Rejected> guardRail, VirtualClock clock,
+                         ArrivalProcess arrivals, Backend backend, long timeoutMillis, long seed) {
+        if (guardRail.getClock() != clock) {
+            throw new IllegalArgumentException("GuardRail must use the simulation clock.");
+        }
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be greater than 0. Found: " + timeoutMillis);
+        }
+        this.guardRail = guardRail;
+        this.clock = clock;
+        this.arrivals = arrivals;
+        this.backend = backend;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs the simulation for the given amount of virtual time. Requests still in flight at the
+     * end are completed before the report is returned, but do not count towards throughput.
+     *
+     * @param duration the amount of virtual time to generate arrivals for
+     * @param unit     the unit of the duration
+     * @return the report for this run
+     */
+    public SimulationReport<Rejected> run(long duration, TimeUnit unit) {
+        long startTime = clock.nanoTime();
+        long endTime = startTime + unit.toNanos(duration);
+        SimulationReport<Rejected> report = new SimulationReport<>(unit.toNanos(duration), timeoutNanos);
+
+        long nextArrival = startTime + arrivals.nextArrivalNanos(random, startTime);
+        while (nextArrival - endTime < 0) {
+            Completion next = inFlight.peek();
+            if (next != null && next.nanoTime - nextArrival <= 0) {
+                complete(inFlight.poll(), report, true);
+            } else {
+                clock.advanceTo(nextArrival);
+                arrive(nextArrival, report);
+                nextArrival = nextArrival + arrivals.nextArrivalNanos(random, nextArrival);
+            }
+        }
+
+        Completion completion;
+        while ((completion = inFlight.poll()) != null) {
+            complete(completion, report, completion.nanoTime - endTime < 0);
+        }
+        return report;
+    }
+
+    private void arrive(long nanoTime, SimulationReport<Rejected> report) {
+        report.recordArrival();
+        Rejected rejected = guardRail.acquirePermits(1L, nanoTime);
+        if (rejected != null) {
+            report.recordRejected(rejected);
+            return;
+        }
+
+        long concurrency = inFlight.size() + 1;
+        long latency = backend.latencyNanos(random, concurrency, nanoTime);
+        boolean fails = backend.fails(random, concurrency, nanoTime);
+        TimeoutableResult result;
+        if (latency > timeoutNanos) {
+            latency = timeoutNanos;
+            result = TimeoutableResult.TIMEOUT;
+        } else if (fails) {
+            result = TimeoutableResult.ERROR;
+        } else {
+            result = TimeoutableResult.SUCCESS;
+        }
+        inFlight.add(new Completion(nanoTime, nanoTime + latency, result));
+    }
+
+    private void complete(Completion completion, SimulationReport<Rejected> report, boolean inWindow) {
+        clock.advanceTo(completion.nanoTime);
+        guardRail.releasePermits(1L, completion.result, completion.startNanos, completion.nanoTime);
+        report.recordResult(completion.result, completion.nanoTime - completion.startNanos, inWindow);
+    }
+
+    private static class Completion implements Comparable<Completion> {
+
+        private final long startNanos;
+        private final long nanoTime;
+        private final TimeoutableResult result;
+
+        private Completion(long startNanos, long nanoTime, TimeoutableResult result) {
+            this.startNanos = startNanos;
+            this.nanoTime = nanoTime;
+            this.result = result;
+        }
+
+        @Override
+        public int compareTo(Completion other) {
+            return Long.compare(nanoTime - other.nanoTime, 0);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import net.uncontended.precipice.result.TimeoutableResult;
+import org.HdrHistogram.Histogram;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of a {@link LoadSimulator} run. Latency is recorded for every request that was
+ * admitted, including those that timed out.
+ */
+public class SimulationReport<Rejected extends Enum<Rejected>> {
+
+    private final long durationNanos;
+    private final Histogram latency;
+    private final Map<TimeoutableResult, Long> resultCounts = new EnumMap<>(TimeoutableResult.class);
+    private final Map<Rejected, Long> rejectedCounts = new HashMap<>();
+    private long arrivals;
+    private long rejected;
+    private long completedInWindow;
+
+    SimulationReport(long durationNanos, long timeoutNanos) {
+        this.durationNanos = durationNanos;
+        this.latency = new Histogram(Math.max(timeoutNanos, 2), 2);
+        for (TimeoutableResult result : TimeoutableResult.values()) {
+            resultCounts.put(result, 0L);
+        }
+    }
+
+    void recordArrival() {
+        ++arrivals;
+    }
+
+    void recordRejected(Rejected reason) {
+        ++rejected;
+        Long count = rejectedCounts.get(reason);
+        rejectedCounts.put(reason, count == null ? 1L : count + 1);
+    }
+
+    void recordResult(TimeoutableResult result, long latencyNanos, boolean inWindow) {
+        resultCounts.put(result, resultCounts.get(result) + 1);
+        latency.recordValue(Math.min(latencyNanos, latency.getHighestTrackableValue()));
+        if (inWindow && result == TimeoutableResult.SUCCESS) {
+            ++completedInWindow;
+        }
+    }
+
+    public long arrivals() {
+        return arrivals;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    public long rejected(Rejected reason) {
+        Long count = rejectedCounts.get(reason);
+        return count == null ? 0 : count;
+    }
+
+    public long results(TimeoutableResult result) {
+        return resultCounts.get(result);
+    }
+
+    /**
+     * Returns the number of successful requests per second of virtual time that completed before
+     * the simulation window ended.
+     *
+     * @return successful throughput per second
+     */
+    public double throughputPerSecond() {
+        return completedInWindow / ((double) durationNanos / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public double rejectionRate() {
+        return arrivals == 0 ? 0.0 : (double) rejected / arrivals;
+    }
+
+    public long latencyAtPercentile(double percentile, TimeUnit unit) {
+        return unit.convert(latency.getValueAtPercentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    public Histogram latency() {
+        return latency.copy();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationReport{" +
+                "arrivals=" + arrivals +
+                ", results=" + resultCounts +
+                ", rejected=" + rejectedCounts +
+                ", throughputPerSecond=" + throughputPerSecond() +
+                ", rejectionRate=" + rejectionRate() +
+                ", p50Micros=" + latencyAtPercentile(50.0, TimeUnit.MICROSECONDS) +
+                ", p99Micros=" + latencyAtPercentile(99.0, TimeUnit.MICROSECONDS) +
+                '}';
+    }
+}
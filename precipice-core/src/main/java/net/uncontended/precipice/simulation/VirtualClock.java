@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import net.uncontended.precipice.time.Clock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Clock} that only moves when it is told to. It is intended for single threaded
+ * simulations and is not thread safe.
+ */
+public class VirtualClock implements Clock {
+
+    private final long epochMillis;
+    private long nanoTime;
+
+    public VirtualClock() {
+        this(0L, 0L);
+    }
+
+    public VirtualClock(long startNanoTime, long epochMillis) {
+        this.nanoTime = startNanoTime;
+        this.epochMillis = epochMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return epochMillis + TimeUnit.NANOSECONDS.toMillis(nanoTime);
+    }
+
+    @Override
+    public long nanoTime() {
+        return nanoTime;
+    }
+
+    public void advanceTo(long nanoTime) {
+        if (nanoTime - this.nanoTime < 0) {
+            throw new IllegalArgumentException("Virtual time cannot move backwards.");
+        }
+        this.nanoTime = nanoTime;
+    }
+
+    public void advance(long duration, TimeUnit unit) {
+        advanceTo(nanoTime + unit.toNanos(duration));
+    }
+}
@@ -18,46 +18,119 @@
 package net.uncontended.precipice.time;
 
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.LockSupport;
 
 /**
- * Unstable and still in development. At this time, {@link SystemTime} should be used.
+ * A {@link Clock} that caches the current time. A ticker thread refreshes the cached values
+ * once per resolution interval, so readers pay for a volatile read instead of a call to
+ * {@link System#nanoTime()}. The cached values are padded so that the writes made by the ticker
+ * do not invalidate unrelated fields that readers have cached.
+ * <p/>
+ * The clock can be stopped and started again. While it is stopped, reads fall through to
+ * {@link System#nanoTime()} and {@link System#currentTimeMillis()}.
+ * <p/>
+ * If stats are enabled, the ticker records how late each tick was relative to the configured
+ * resolution. This is the additional staleness readers could have observed. No stats are
+ * recorded otherwise.
  */
-public class TickingClock implements Clock {
+public class TickingClock extends TickingClockRhsPadding implements Clock {
 
-    public Histogram gram = new Histogram(TimeUnit.MILLISECONDS.toNanos(100), 3);
+    private static final long DEFAULT_RESOLUTION_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
     private static final AtomicReference<TickingClock> instance = new AtomicReference<>();
+
+    private final String name;
+    private final long resolutionNanos;
+    private final boolean daemon;
+    private final SingleWriterRecorder tickLag;
     private volatile Thread runner;
-    private volatile boolean stopped = false;
-    private volatile long currentMillis = System.currentTimeMillis();
-    private volatile long currentNanos = System.nanoTime();
+
+    public TickingClock(String name, long resolution, TimeUnit unit) {
+        this(name, resolution, unit, true, false);
+    }
+
+    public TickingClock(String name, long resolution, TimeUnit unit, boolean daemon, boolean recordStats) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be greater than 0. Found: " + resolution);
+        }
+        this.name = name;
+        this.resolutionNanos = unit.toNanos(resolution);
+        this.daemon = daemon;
+        tickLag = recordStats ? new SingleWriterRecorder(TimeUnit.SECONDS.toNanos(10), 2) : null;
+    }
 
     @Override
     public long currentTimeMillis() {
-        return currentMillis;
+        if (isTicking) {
+            return currentMillis;
+        }
+        return System.currentTimeMillis();
     }
 
     @Override
     public long nanoTime() {
-        return currentNanos;
+        if (isTicking) {
+            return currentNanos;
+        }
+        return System.nanoTime();
+    }
+
+    public synchronized void start() {
+        if (runner == null) {
+            currentMillis = System.currentTimeMillis();
+            currentNanos = System.nanoTime();
+            Thread thread = new Thread(new Ticker(), name);
+            thread.setDaemon(daemon);
+            runner = thread;
+            isTicking = true;
+            thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        Thread thread = runner;
+        if (thread != null) {
+            isTicking = false;
+            runner = null;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public boolean isRunning() {
+        return runner != null;
     }
 
-    private void start() {
-        runner = new Thread(new TTask());
-        runner.start();
+    public long resolutionNanos() {
+        return resolutionNanos;
     }
 
-    public void stop() {
-        stopped = true;
-        runner.interrupt();
+    /**
+     * Returns a histogram of how many nanoseconds each tick was late since the last time this
+     * method was called.
+     *
+     * @return the tick lag histogram
+     * @throws IllegalStateException if stats were not enabled
+     */
+    public Histogram tickLagSinceLastCall() {
+        if (tickLag == null) {
+            throw new IllegalStateException("Stats are not enabled for this clock.");
+        }
+        return tickLag.getIntervalHistogram();
     }
 
+    /**
+     * Returns the shared clock, starting it if necessary. The shared clock ticks every 50
+     * microseconds on a daemon thread and does not record stats.
+     *
+     * @return the shared clock
+     */
     public static TickingClock getInstance() {
         if (instance.get() == null) {
-            TickingClock newClock = new TickingClock();
+            TickingClock newClock = new TickingClock("precipice-ticking-clock", DEFAULT_RESOLUTION_NANOS,
+                    TimeUnit.NANOSECONDS);
             if (instance.compareAndSet(null, newClock)) {
                 newClock.start();
             }
@@ -65,20 +138,38 @@ public class TickingClock implements Clock {
         return instance.get();
     }
 
-    private class TTask implements Runnable {
+    private class Ticker implements Runnable {
 
         @Override
         public void run() {
-            long waitTime = 50000;
+            Thread thread = Thread.currentThread();
+            SingleWriterRecorder tickLag = TickingClock.this.tickLag;
+            long highestTrackable = TimeUnit.SECONDS.toNanos(10);
 
-            while (!stopped) {
-                LockSupport.parkNanos(waitTime);
+            while (runner == thread) {
+                LockSupport.parkNanos(this, resolutionNanos);
+                long newNanos = System.nanoTime();
+                if (tickLag != null) {
+                    long lag = newNanos - currentNanos - resolutionNanos;
+                    tickLag.recordValue(Math.min(Math.max(lag, 0), highestTrackable));
+                }
                 currentMillis = System.currentTimeMillis();
-                long newTime = System.nanoTime();
-                gram.recordValue(newTime - currentNanos);
-                currentNanos = newTime;
-
+                currentNanos = newNanos;
             }
         }
     }
 }
+
+abstract class TickingClockLhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+abstract class TickingClockValues extends TickingClockLhsPadding {
+    protected volatile boolean isTicking = false;
+    protected volatile long currentMillis = System.currentTimeMillis();
+    protected volatile long currentNanos = System.nanoTime();
+}
+
+abstract class TickingClockRhsPadding extends TickingClockValues {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
@@ -54,7 +54,7 @@ public class DelayQueueTimeoutService implements TimeoutService {
 
     @Override
     public void scheduleTimeout(Timeout timeout, long timeoutMillis) {
-        scheduleTimeout(timeout, timeoutMillis, System.nanoTime());
+        scheduleTimeout(timeout, timeoutMillis, clock.nanoTime());
     }
 
     @Override
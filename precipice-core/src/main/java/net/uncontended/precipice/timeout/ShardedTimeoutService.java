@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.timeout;
+
+import net.uncontended.precipice.Cancellable;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TimeoutService} that spreads timeouts across a number of {@link TimerWheelService}
+ * shards. Each shard has its own wheel and expiry thread. A timeout is routed to a shard based
+ * on the thread that schedules it, so threads scheduling timeouts do not contend on a single
+ * queue.
+ * <p/>
+ * If an expiry executor is provided, {@link Timeout#timeout()} is dispatched to that executor
+ * instead of being run on the shard thread. A slow timeout then cannot delay the other timeouts
+ * on its shard.
+ */
+public class ShardedTimeoutService implements TimeoutService {
+
+    private final TimerWheelService[] shards;
+    private final Executor expiryExecutor;
+
+    public ShardedTimeoutService(String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedTimeoutService(String name, int shardCount) {
+        this(name, shardCount, null);
+    }
+
+    public ShardedTimeoutService(String name, int shardCount, Executor expiryExecutor) {
+        this(name, shardCount, 1, TimeUnit.MILLISECONDS, SystemTime.getInstance(), null, expiryExecutor);
+    }
+
+    public ShardedTimeoutService(String name, int shardCount, long resolution, TimeUnit unit, Clock clock,
+                                 Thread.UncaughtExceptionHandler exceptionHandler, Executor expiryExecutor) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Cannot have fewer than 1 shard");
+        }
+        this.expiryExecutor = expiryExecutor;
+        shards = new TimerWheelService[shardCount];
+        for (int i = 0; i < shardCount; ++i) {
+            shards[i] = new TimerWheelService(name + "-" + i, resolution, unit, clock, exceptionHandler);
+        }
+    }
+
+    @Override
+    public void scheduleTimeout(Timeout timeout, long timeoutMillis) {
+        currentShard().scheduleTimeout(wrap(timeout), timeoutMillis);
+    }
+
+    @Override
+    public void scheduleTimeout(Timeout timeout, long timeoutMillis, long nanoTime) {
+        currentShard().scheduleTimeout(wrap(timeout), timeoutMillis, nanoTime);
+    }
+
+    public Cancellable scheduleCancellableTimeout(Timeout timeout, long timeoutMillis, long nanoTime) {
+        return currentShard().scheduleCancellableTimeout(wrap(timeout), timeoutMillis, nanoTime);
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public void stop() {
+        for (TimerWheelService shard : shards) {
+            shard.stop();
+        }
+    }
+
+    private TimerWheelService currentShard() {
+        long threadId = Thread.currentThread().getId();
+        return shards[(int) (threadId % shards.length)];
+    }
+
+    private Timeout wrap(Timeout timeout) {
+        if (expiryExecutor == null) {
+            return timeout;
+        }
+        return new DispatchingTimeout(timeout, expiryExecutor);
+    }
+
+    private static class DispatchingTimeout implements Timeout, Runnable {
+
+        private final Timeout timeout;
+        private final Executor executor;
+
+        private DispatchingTimeout(Timeout timeout, Executor executor) {
+            this.timeout = timeout;
+            this.executor = executor;
+        }
+
+        @Override
+        public void timeout() {
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            timeout.timeout();
+        }
+    }
+}
@@ -16,28 +16,331 @@
 
 package net.uncontended.precipice.timeout;
 
+import net.uncontended.precipice.Cancellable;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+import net.uncontended.precipice.time.TickingClock;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Unstable and still in development. At this time, {@link DelayQueueTimeoutService} should be used.
+ * A {@link TimeoutService} backed by a hierarchical timing wheel. Each level of the wheel has
+ * 64 slots, and each slot on a level covers 64 times the duration of a slot on the level below
+ * it. Near deadlines land on the lowest level and expire with the precision of the wheel
+ * resolution. Far deadlines land on higher levels and are cascaded down as the wheel turns.
+ * <p/>
+ * Scheduling and cancelling a timeout are constant time. Callers only hand nodes to the wheel
+ * thread through concurrent queues. The wheel itself is owned by a single thread. There is no
+ * maximum timeout, so {@link DelayQueueTimeoutService#MAX_TIMEOUT_MILLIS} does not apply.
+ * <p/>
+ * Every timeout that falls due within a tick is expired in a single sweep, so the resolution
+ * trades timeout precision against wakeups. When the wheel is empty the thread parks until
+ * the next timeout is scheduled. See {@link #coarse(String, long, TimeUnit)} for a mode intended
+ * for timeouts in the hundreds of milliseconds.
  */
 public class TimerWheelService implements TimeoutService {
 
-    private final long resolution;
-    private final long startTime;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = (Long.SIZE - 1 + WHEEL_BITS - 1) / WHEEL_BITS;
+    private static final AtomicIntegerFieldUpdater<TimeoutNode> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(TimeoutNode.class, "state");
+
+    private final long resolutionNanos;
+    private final long startNanos;
+    private final Clock clock;
+    private final Thread.UncaughtExceptionHandler exceptionHandler;
+    private final Thread wheelThread;
+    private final AtomicBoolean isStarted = new AtomicBoolean(false);
+    private final ConcurrentLinkedQueue<TimeoutNode> scheduledQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<TimeoutNode> cancelledQueue = new ConcurrentLinkedQueue<>();
+    private final TimeoutNode[][] wheel = new TimeoutNode[LEVELS][WHEEL_SIZE];
+    private long currentTick = 0;
+    private long size = 0;
+    private volatile boolean isIdle = false;
+    private volatile boolean isRunning = true;
+
+    public TimerWheelService(String name) {
+        this(name, 1, TimeUnit.MILLISECONDS);
+    }
+
+    public TimerWheelService(String name, long resolution, TimeUnit unit) {
+        this(name, resolution, unit, SystemTime.getInstance(), null);
+    }
+
+    public TimerWheelService(String name, long resolution, TimeUnit unit, Clock clock,
+                             Thread.UncaughtExceptionHandler exceptionHandler) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be greater than 0. Found: " + resolution);
+        }
+        this.resolutionNanos = unit.toNanos(resolution);
+        this.clock = clock;
+        this.exceptionHandler = exceptionHandler;
+        startNanos = clock.nanoTime();
 
-    public TimerWheelService(long resolution, TimeUnit unit) {
-        this.resolution = unit.toMillis(resolution);
-        startTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        wheelThread = new Thread(new WheelTask(), name + "-timeout-thread");
+        wheelThread.setDaemon(true);
     }
 
     @Override
     public void scheduleTimeout(Timeout timeout, long timeoutMillis) {
-
+        scheduleTimeout(timeout, timeoutMillis, clock.nanoTime());
     }
 
     @Override
     public void scheduleTimeout(Timeout timeout, long timeoutMillis, long nanoTime) {
+        scheduleCancellableTimeout(timeout, timeoutMillis, nanoTime);
+    }
+
+    /**
+     * Schedules a timeout and returns a handle that can be used to cancel it. A cancelled
+     * timeout will not be executed and is removed from the wheel on the next tick.
+     *
+     * @param timeout       to execute
+     * @param timeoutMillis relative timeout in milliseconds
+     * @param nanoTime      currentInterval nano time
+     * @return a handle to cancel the timeout
+     */
+    public Cancellable scheduleCancellableTimeout(Timeout timeout, long timeoutMillis, long nanoTime) {
+        if (!isStarted.get()) {
+            startThread();
+        }
+        if (isRunning) {
+            TimeoutNode node = new TimeoutNode(timeout, deadlineTick(timeoutMillis, nanoTime));
+            scheduledQueue.offer(node);
+            if (isIdle) {
+                LockSupport.unpark(wheelThread);
+            }
+            return node;
+        } else {
+            throw new IllegalArgumentException("Service has been stopped.");
+        }
+    }
+
+    public void stop() {
+        if (isRunning) {
+            isRunning = false;
+            wheelThread.interrupt();
+        }
+    }
+
+    /**
+     * Creates a wheel that reads time from the cached {@link TickingClock} and only sweeps
+     * for expired timeouts once per precision interval. All timeouts falling due within an
+     * interval are expired together, so thousands of timeouts cost one wakeup per interval.
+     * A timeout may fire up to one precision interval (plus the clock's tick) late, but
+     * never early.
+     *
+     * @param name      of the service
+     * @param precision the sweep interval
+     * @param unit      the unit of the precision argument
+     * @return a coarse timeout service
+     */
+    public static TimerWheelService coarse(String name, long precision, TimeUnit unit) {
+        return new TimerWheelService(name, precision, unit, TickingClock.getInstance(), null);
+    }
+
+    private void startThread() {
+        if (isStarted.compareAndSet(false, true)) {
+            wheelThread.start();
+        }
+    }
+
+    private long deadlineTick(long timeoutMillis, long nanoTime) {
+        long elapsed = nanoTime - startNanos;
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 0));
+        long deadlineNanos = timeoutNanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE : elapsed + timeoutNanos;
+        if (deadlineNanos <= 0) {
+            return 0;
+        }
+        // Round up so that a timeout never fires before its deadline.
+        return deadlineNanos / resolutionNanos + (deadlineNanos % resolutionNanos == 0 ? 0 : 1);
+    }
+
+    private void advance(long targetTick) {
+        if (size == 0 && currentTick < targetTick) {
+            // Nothing is in the wheel, so there is nothing to cascade or expire on the way.
+            currentTick = targetTick;
+        }
+        drainScheduled();
+        drainCancelled();
+
+        while (currentTick < targetTick) {
+            long tick = ++currentTick;
+            for (int level = LEVELS - 1; level > 0; --level) {
+                long lowerBits = (1L << (level * WHEEL_BITS)) - 1;
+                if ((tick & lowerBits) == 0) {
+                    cascade(level, (int) ((tick >>> (level * WHEEL_BITS)) & WHEEL_MASK));
+                }
+            }
+            expireSlot((int) (tick & WHEEL_MASK));
+        }
+    }
+
+    private void drainScheduled() {
+        TimeoutNode node;
+        while ((node = scheduledQueue.poll()) != null) {
+            if (node.state == TimeoutNode.PENDING) {
+                place(node);
+            }
+        }
+    }
+
+    private void drainCancelled() {
+        TimeoutNode node;
+        while ((node = cancelledQueue.poll()) != null) {
+            unlink(node);
+        }
+    }
+
+    private void place(TimeoutNode node) {
+        long deadline = node.deadlineTick;
+        if (deadline <= currentTick) {
+            expire(node);
+            return;
+        }
+
+        long highestDifferentBit = 63 - Long.numberOfLeadingZeros(deadline ^ currentTick);
+        int level = (int) (highestDifferentBit / WHEEL_BITS);
+        int slot = (int) ((deadline >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+
+        TimeoutNode head = wheel[level][slot];
+        ++size;
+        node.level = level;
+        node.slot = slot;
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        wheel[level][slot] = node;
+    }
+
+    private void unlink(TimeoutNode node) {
+        if (node.level < 0) {
+            return;
+        }
+        if (node.prev == null) {
+            wheel[node.level][node.slot] = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        --size;
+        node.detach();
+    }
+
+    private void cascade(int level, int slot) {
+        TimeoutNode node = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (node != null) {
+            TimeoutNode next = node.next;
+            --size;
+            node.detach();
+            if (node.state == TimeoutNode.PENDING) {
+                place(node);
+            }
+            node = next;
+        }
+    }
+
+    private void expireSlot(int slot) {
+        TimeoutNode node = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (node != null) {
+            TimeoutNode next = node.next;
+            --size;
+            node.detach();
+            expire(node);
+            node = next;
+        }
+    }
+
+    private void expire(TimeoutNode node) {
+        if (STATE_UPDATER.compareAndSet(node, TimeoutNode.PENDING, TimeoutNode.EXPIRED)) {
+            try {
+                node.timeout.timeout();
+            } catch (Exception e) {
+                if (exceptionHandler != null) {
+                    exceptionHandler.uncaughtException(Thread.currentThread(), e);
+                } else {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class WheelTask implements Runnable {
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                if (size == 0 && scheduledQueue.isEmpty()) {
+                    parkUntilScheduled();
+                }
+                long nextTickNanos = startNanos + (currentTick + 1) * resolutionNanos;
+                long sleepNanos = nextTickNanos - clock.nanoTime();
+                if (sleepNanos > 0) {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+                if (Thread.interrupted() && !isRunning) {
+                    break;
+                }
+                advance((clock.nanoTime() - startNanos) / resolutionNanos);
+            }
+        }
+
+        private void parkUntilScheduled() {
+            isIdle = true;
+            // Check again after publishing the idle flag so that a concurrent schedule is not missed.
+            while (scheduledQueue.isEmpty() && isRunning) {
+                LockSupport.park(this);
+                if (Thread.interrupted() && !isRunning) {
+                    break;
+                }
+            }
+            isIdle = false;
+        }
+    }
+
+    private class TimeoutNode implements Cancellable {
+
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Timeout timeout;
+        private final long deadlineTick;
+        volatile int state = PENDING;
+        private TimeoutNode next;
+        private TimeoutNode prev;
+        private int level = -1;
+        private int slot = -1;
+
+        private TimeoutNode(Timeout timeout, long deadlineTick) {
+            this.timeout = timeout;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public void cancel() {
+            if (STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED)) {
+                cancelledQueue.offer(this);
+            }
+        }
 
+        private void detach() {
+            next = null;
+            prev = null;
+            level = -1;
+            slot = -1;
+        }
     }
 }
@@ -22,6 +22,8 @@ import net.uncontended.precipice.metrics.latency.NoOpLatency;
 import net.uncontended.precipice.rejected.Rejected;
 import net.uncontended.precipice.rejected.RejectedException;
 import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.retry.RetryBudget;
+import net.uncontended.precipice.retry.RetryPolicy;
 import net.uncontended.precipice.test_utils.TestCallables;
 import net.uncontended.precipice.time.SystemTime;
 import net.uncontended.precipice.timeout.PrecipiceTimeoutException;
@@ -38,11 +40,14 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -126,6 +131,59 @@ public class CallServiceTest {
         verify(releaseFunction).apply(eq(TimeoutableResult.TIMEOUT), any(ExecutionContext.class));
     }
 
+    @Test
+    public void failedCallsAreRetriedUntilMaxAttempts() throws Exception {
+        when(guardRail.acquirePermits(eq(1L), anyLong())).thenReturn(null);
+
+        RetryBudget<Rejected> budget = new RetryBudget<>(Rejected.RATE_LIMIT_EXCEEDED, 0.0, 5, 10, TimeUnit.SECONDS);
+        RetryPolicy<Rejected> policy = new RetryPolicy<>(2, 0L, 0L, budget);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final RuntimeException exception = new RuntimeException();
+
+        try {
+            service.call(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    calls.incrementAndGet();
+                    throw exception;
+                }
+            }, policy);
+            fail("Should have thrown exception.");
+        } catch (RuntimeException e) {
+            assertEquals(exception, e);
+        }
+
+        assertEquals(2, calls.get());
+        assertEquals(4, budget.availableRetries(SystemTime.getInstance().nanoTime()));
+        verify(releaseFunction, times(2)).apply(eq(TimeoutableResult.ERROR), any(ExecutionContext.class));
+    }
+
+    @Test
+    public void retryRejectedByGuardRailIsRefundedToTheBudget() throws Exception {
+        when(guardRail.acquirePermits(eq(1L), anyLong())).thenReturn(null, Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED);
+
+        RetryBudget<Rejected> budget = new RetryBudget<>(Rejected.RATE_LIMIT_EXCEEDED, 0.0, 5, 10, TimeUnit.SECONDS);
+        RetryPolicy<Rejected> policy = new RetryPolicy<>(3, 0L, 0L, budget);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final RuntimeException exception = new RuntimeException();
+
+        try {
+            service.call(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    calls.incrementAndGet();
+                    throw exception;
+                }
+            }, policy);
+            fail("Should have thrown exception.");
+        } catch (RuntimeException e) {
+            assertEquals(exception, e);
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(5, budget.availableRetries(SystemTime.getInstance().nanoTime()));
+    }
+
     @Test
     public void simulationTest() {
         final Random random = ThreadLocalRandom.current();
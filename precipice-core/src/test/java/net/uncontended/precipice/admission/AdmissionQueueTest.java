@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.admission;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.metrics.latency.TotalLatency;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import net.uncontended.precipice.test_utils.TestResult;
+import net.uncontended.precipice.timeout.TimerWheelService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AdmissionQueueTest {
+
+    private final TotalLatency<WaitOutcome> waitLatency = new TotalLatency<>(WaitOutcome.class);
+    private TimerWheelService timeoutService;
+
+    @After
+    public void tearDown() {
+        if (timeoutService != null) {
+            timeoutService.stop();
+        }
+    }
+
+    @Test
+    public void releasedPermitsAreHandedToWaiter() throws Exception {
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 10, waitLatency, null);
+        final GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        final AtomicReference<Rejected> result = new AtomicReference<>(Rejected.CIRCUIT_OPEN);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = startWaiter(queue, result, done);
+
+        while (queue.queueSize() == 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, done.getCount());
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertNull(result.get());
+        assertEquals(0, queue.queueSize());
+        assertEquals(1, waitLatency.getHistogram(WaitOutcome.ADMITTED).getTotalCount());
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, guardRail.acquirePermits(1L, System.nanoTime()));
+    }
+
+    @Test
+    public void waitTimesOutWithRejectedReason() {
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 10, waitLatency, null);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, queue.acquirePermits(1L, 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.queueSize());
+        assertEquals(1, waitLatency.getHistogram(WaitOutcome.TIMED_OUT).getTotalCount());
+    }
+
+    @Test
+    public void fullQueueRejectsImmediately() {
+        timeoutService = new TimerWheelService("admission-timeouts");
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 1, waitLatency, timeoutService);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        RecordingCallback first = new RecordingCallback("first");
+        queue.acquirePermits(1L, 10000L, first);
+        assertEquals(1, queue.queueSize());
+
+        long start = System.nanoTime();
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, queue.acquirePermits(1L, 5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void lifoHandsPermitsToNewestWaiter() {
+        timeoutService = new TimerWheelService("admission-timeouts");
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.LIFO, 10, waitLatency, timeoutService);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        List<String> outcomes = new CopyOnWriteArrayList<>();
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("first", outcomes));
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("second", outcomes));
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+
+        assertEquals(1, outcomes.size());
+        assertEquals("second-admitted", outcomes.get(0));
+        assertEquals(1, queue.queueSize());
+    }
+
+    @Test
+    public void arrivalsQueueBehindWaitersAndPermitsAreTransferredInOrder() {
+        timeoutService = new TimerWheelService("admission-timeouts");
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 10, waitLatency, timeoutService);
+        TotalCounts<Rejected> rejectedCounts = new TotalCounts<>(Rejected.class);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue, rejectedCounts);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        List<String> outcomes = new CopyOnWriteArrayList<>();
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("first", outcomes));
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("second", outcomes));
+        assertEquals(2, queue.queueSize());
+        assertEquals(1, rejectedCounts.getCount(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED));
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, guardRail.acquirePermits(1L, System.nanoTime()));
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("third", outcomes));
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+
+        assertEquals(3, outcomes.size());
+        assertEquals("first-admitted", outcomes.get(0));
+        assertEquals("second-admitted", outcomes.get(1));
+        assertEquals("third-admitted", outcomes.get(2));
+        assertEquals(0, queue.queueSize());
+        assertEquals(2, rejectedCounts.getCount(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED));
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStopLaterHandOffs() {
+        timeoutService = new TimerWheelService("admission-timeouts");
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 10, waitLatency, timeoutService);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        final RuntimeException exception = new RuntimeException();
+        final List<Throwable> reported = new CopyOnWriteArrayList<>();
+        List<String> outcomes = new CopyOnWriteArrayList<>();
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("first", outcomes) {
+            @Override
+            public void admitted(long nanoTime) {
+                throw exception;
+            }
+        });
+        queue.acquirePermits(1L, 10000L, new RecordingCallback("second", outcomes));
+
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                reported.add(e);
+            }
+        });
+        try {
+            guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+        assertEquals(1, reported.size());
+        assertSame(exception, reported.get(0));
+        assertEquals(1, queue.queueSize());
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+        assertEquals(1, outcomes.size());
+        assertEquals("second-admitted", outcomes.get(0));
+        assertEquals(0, queue.queueSize());
+
+        guardRail.releasePermits(1L, TestResult.SUCCESS, System.nanoTime());
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+    }
+
+    @Test
+    public void asyncWaitTimesOut() throws Exception {
+        timeoutService = new TimerWheelService("admission-timeouts");
+        AdmissionQueue<Rejected> queue = new AdmissionQueue<>(HandoffOrder.FIFO, 10, waitLatency, timeoutService);
+        GuardRail<TestResult, Rejected> guardRail = guardRail(queue);
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+
+        RecordingCallback callback = new RecordingCallback("first");
+        queue.acquirePermits(1L, 10L, callback);
+
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        assertEquals("first-" + Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, callback.outcomes.get(0));
+        assertEquals(0, queue.queueSize());
+    }
+
+    private static GuardRail<TestResult, Rejected> guardRail(AdmissionQueue<Rejected> queue) {
+        return guardRail(queue, new TotalCounts<>(Rejected.class));
+    }
+
+    private static GuardRail<TestResult, Rejected> guardRail(AdmissionQueue<Rejected> queue,
+                                                             TotalCounts<Rejected> rejectedCounts) {
+        return new GuardRailBuilder<TestResult, Rejected>()
+                .name("Admission")
+                .resultCounts(new TotalCounts<>(TestResult.class))
+                .rejectedCounts(rejectedCounts)
+                .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1))
+                .addBackPressure(queue)
+                .build();
+    }
+
+    private static Thread startWaiter(final AdmissionQueue<Rejected> queue, final AtomicReference<Rejected> result,
+                                      final CountDownLatch done) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(queue.acquirePermits(1L, 5, TimeUnit.SECONDS));
+                done.countDown();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static class RecordingCallback implements AdmissionCallback<Rejected> {
+
+        private final String name;
+        private final List<String> outcomes;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private RecordingCallback(String name) {
+            this(name, new CopyOnWriteArrayList<String>());
+        }
+
+        private RecordingCallback(String name, List<String> outcomes) {
+            this.name = name;
+            this.outcomes = outcomes;
+        }
+
+        @Override
+        public void admitted(long nanoTime) {
+            outcomes.add(name + "-admitted");
+            done.countDown();
+        }
+
+        @Override
+        public void rejected(Rejected reason) {
+            outcomes.add(name + "-" + reason);
+            done.countDown();
+        }
+    }
+}
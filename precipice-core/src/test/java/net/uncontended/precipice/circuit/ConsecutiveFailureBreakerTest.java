@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.circuit;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.test_utils.TestResult;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConsecutiveFailureBreakerTest {
+
+    private CircuitBreakerConfigBuilder<Rejected> builder = new CircuitBreakerConfigBuilder<>(Rejected.CIRCUIT_OPEN);
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        ConsecutiveFailureBreaker<Rejected> breaker = new ConsecutiveFailureBreaker<>(builder.failureThreshold(2).build());
+
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        assertFalse(breaker.isOpen());
+        assertEquals(2, breaker.consecutiveFailures());
+
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        assertTrue(breaker.isOpen());
+        assertEquals(0, breaker.consecutiveFailures());
+    }
+
+    @Test
+    public void successResetsFailureStreak() {
+        ConsecutiveFailureBreaker<Rejected> breaker = new ConsecutiveFailureBreaker<>(builder.failureThreshold(2).build());
+
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        breaker.releasePermit(1L, TestResult.SUCCESS, 0L);
+        assertEquals(0, breaker.consecutiveFailures());
+
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        breaker.releasePermit(1L, TestResult.ERROR, 0L);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void openCircuitAllowsTestAfterBackOffAndClosesOnSuccess() {
+        CircuitBreakerConfig<Rejected> config = builder.failureThreshold(0).backOffTimeMillis(1000).build();
+        ConsecutiveFailureBreaker<Rejected> breaker = new ConsecutiveFailureBreaker<>(config);
+
+        long nanoTime = 0L;
+        breaker.releasePermit(1L, TestResult.ERROR, nanoTime);
+        assertTrue(breaker.isOpen());
+
+        assertEquals(Rejected.CIRCUIT_OPEN, breaker.acquirePermit(1L, nanoTime + TimeUnit.MILLISECONDS.toNanos(999)));
+
+        long testTime = nanoTime + TimeUnit.MILLISECONDS.toNanos(1001);
+        assertNull(breaker.acquirePermit(1L, testTime));
+        assertEquals(Rejected.CIRCUIT_OPEN, breaker.acquirePermit(1L, testTime + 1));
+
+        breaker.releasePermit(1L, TestResult.SUCCESS, testTime + 2);
+        assertFalse(breaker.isOpen());
+        assertNull(breaker.acquirePermit(1L, testTime + 3));
+    }
+
+    @Test
+    public void forcedOpenIsNotClosedBySuccess() {
+        ConsecutiveFailureBreaker<Rejected> breaker = new ConsecutiveFailureBreaker<>(builder.failureThreshold(0).build());
+
+        breaker.forceOpen();
+        breaker.releasePermit(1L, TestResult.SUCCESS, 0L);
+        assertTrue(breaker.isOpen());
+        assertEquals(Rejected.CIRCUIT_OPEN, breaker.acquirePermit(1L, Long.MAX_VALUE));
+
+        breaker.forceClosed();
+        assertFalse(breaker.isOpen());
+        assertNull(breaker.acquirePermit(1L, 0L));
+    }
+
+    @Test
+    public void breakerDoesNotRequireRollingCounts() {
+        ConsecutiveFailureBreaker<Rejected> breaker = new ConsecutiveFailureBreaker<>(builder.failureThreshold(1).build());
+        GuardRail<TestResult, Rejected> guardRail = new GuardRailBuilder<TestResult, Rejected>()
+                .name("Consecutive")
+                .resultCounts(new TotalCounts<>(TestResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(breaker)
+                .build();
+
+        assertNull(guardRail.acquirePermits(1L, 0L));
+        guardRail.releasePermits(1L, TestResult.ERROR, 0L, 0L);
+        assertNull(guardRail.acquirePermits(1L, 0L));
+        guardRail.releasePermits(1L, TestResult.ERROR, 0L, 0L);
+        assertEquals(Rejected.CIRCUIT_OPEN, guardRail.acquirePermits(1L, 0L));
+    }
+}
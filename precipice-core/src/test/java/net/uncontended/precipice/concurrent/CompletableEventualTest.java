@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.concurrent;
+
+import net.uncontended.precipice.Cancellable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.factories.Asynchronous;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import net.uncontended.precipice.test_utils.TestResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class CompletableEventualTest {
+
+    private GuardRail<TestResult, Rejected> guardRail;
+    private TotalCounts<TestResult> resultCounts;
+
+    @Before
+    public void setUp() {
+        resultCounts = new TotalCounts<>(TestResult.class);
+        guardRail = new GuardRailBuilder<TestResult, Rejected>()
+                .name("Completable")
+                .resultCounts(resultCounts)
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1))
+                .build();
+    }
+
+    @Test
+    public void stagesComposeAndPermitsAreReleased() throws Exception {
+        CompletableEventual<TestResult, String> promise = Asynchronous.acquireSinglePermitAndCompletableFuture(guardRail);
+        CompletableFuture<Integer> length = promise.thenApply(new Function<String, Integer>() {
+            @Override
+            public Integer apply(String s) {
+                return s.length();
+            }
+        }).toCompletableFuture();
+
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, guardRail.acquirePermits(1L, 0L));
+
+        assertTrue(promise.complete(TestResult.SUCCESS, "Hello"));
+        assertFalse(promise.complete(TestResult.SUCCESS, "Goodbye"));
+
+        assertEquals(5, length.get().intValue());
+        assertEquals(TestResult.SUCCESS, promise.getResult());
+        assertEquals(1, resultCounts.getCount(TestResult.SUCCESS));
+        assertNull(guardRail.acquirePermits(1L, 0L));
+    }
+
+    @Test
+    public void exceptionalCompletionPropagatesToStages() throws Exception {
+        CompletableEventual<TestResult, String> promise = Asynchronous.acquireSinglePermitAndCompletableFuture(guardRail);
+        CompletableFuture<Integer> length = promise.thenApply(new Function<String, Integer>() {
+            @Override
+            public Integer apply(String s) {
+                return s.length();
+            }
+        }).toCompletableFuture();
+
+        IOException exception = new IOException();
+        assertTrue(promise.completeExceptionally(TestResult.ERROR, exception));
+
+        try {
+            length.get();
+            fail("Should have thrown exception.");
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        assertSame(exception, promise.getError());
+        assertEquals(1, resultCounts.getCount(TestResult.ERROR));
+    }
+
+    @Test
+    public void cancelCancelsCancellableAndCompletesWithCancelledResult() throws Exception {
+        CompletableEventual<TestResult, String> promise =
+                Asynchronous.acquirePermitsAndCompletableFuture(guardRail, 1L, TestResult.ERROR);
+        CompletableFuture<Integer> length = promise.thenApply(new Function<String, Integer>() {
+            @Override
+            public Integer apply(String s) {
+                return s.length();
+            }
+        }).toCompletableFuture();
+        Cancellable cancellable = mock(Cancellable.class);
+        promise.setCancellable(cancellable);
+
+        assertTrue(promise.cancel(true));
+
+        verify(cancellable).cancel();
+        assertTrue(promise.isCancelled());
+        assertEquals(TestResult.ERROR, promise.getResult());
+        assertTrue(length.isCompletedExceptionally());
+        try {
+            promise.get();
+            fail("Should have thrown exception.");
+        } catch (CancellationException e) {
+        }
+        assertNull(guardRail.acquirePermits(1L, 0L));
+    }
+
+    @Test
+    public void cancelWithoutCancellableOrResultFails() {
+        CompletableEventual<TestResult, String> promise = new CompletableEventual<>();
+
+        assertFalse(promise.cancel(true));
+        assertFalse(promise.isDone());
+    }
+
+    @Test
+    public void completingTheViewDoesNotCompleteThePromise() throws Exception {
+        CompletableEventual<TestResult, String> promise = Asynchronous.acquireSinglePermitAndCompletableFuture(guardRail);
+        CompletableFuture<String> view = promise.toCompletableFuture();
+
+        assertTrue(view.complete("Value"));
+        assertFalse(view.completeExceptionally(new IOException()));
+        view.obtrudeException(new IOException());
+        assertFalse(promise.isDone());
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, guardRail.acquirePermits(1L, 0L));
+
+        assertTrue(promise.complete(TestResult.SUCCESS, "Hello"));
+        assertEquals("Hello", promise.get());
+        assertSame(view, promise.toCompletableFuture());
+        assertNull(guardRail.acquirePermits(1L, 0L));
+    }
+}
@@ -21,6 +21,7 @@ import net.uncontended.precipice.Cancellable;
 import net.uncontended.precipice.Completable;
 import net.uncontended.precipice.ExecutionContext;
 import net.uncontended.precipice.PrecipiceFunction;
+import net.uncontended.precipice.ResultView;
 import net.uncontended.precipice.test_utils.TestResult;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,8 +29,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
@@ -187,6 +194,55 @@ public class EventualTest {
         verify(wrappedPromise).completeExceptionally(TestResult.ERROR, ex);
     }
 
+    @Test
+    public void throwingCallbackDoesNotPreventOtherCallbacks() throws Exception {
+        Eventual<TestResult, String> eventual = new Eventual<>(wrappedPromise);
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final List<Throwable> reported = new CopyOnWriteArrayList<>();
+        Thread.UncaughtExceptionHandler previous = Thread.currentThread().getUncaughtExceptionHandler();
+        Thread.currentThread().setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                reported.add(e);
+            }
+        });
+
+        try {
+            eventual.onSuccess(new PrecipiceFunction<TestResult, String>() {
+                @Override
+                public void apply(TestResult status, String result) {
+                    calls.add("first");
+                    throw new IllegalStateException();
+                }
+            });
+            eventual.onComplete(new PrecipiceFunction<TestResult, ResultView<TestResult, String>>() {
+                @Override
+                public void apply(TestResult status, ResultView<TestResult, String> result) {
+                    calls.add("second");
+                }
+            });
+
+            eventual.complete(TestResult.SUCCESS, "Result");
+
+            eventual.onSuccess(new PrecipiceFunction<TestResult, String>() {
+                @Override
+                public void apply(TestResult status, String result) {
+                    calls.add("third");
+                    throw new IllegalStateException();
+                }
+            });
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(previous);
+        }
+
+        assertEquals(3, calls.size());
+        assertEquals("first", calls.get(0));
+        assertEquals("second", calls.get(1));
+        assertEquals("third", calls.get(2));
+        assertEquals(2, reported.size());
+        verify(wrappedPromise).complete(TestResult.SUCCESS, "Result");
+    }
+
     @Test
     public void cancelAttemptsToCancel() {
         Eventual<TestResult, String> eventual = new Eventual<>();
@@ -201,4 +257,167 @@ public class EventualTest {
 
         assertTrue(eventual.isCancelled());
     }
+
+    @Test
+    public void waitingThreadsAreReleasedOnCompletion() throws Exception {
+        final Eventual<TestResult, String> eventual = new Eventual<>();
+        int threadCount = 3;
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        final CountDownLatch finished = new CountDownLatch(threadCount);
+        final AtomicReference<String> value = new AtomicReference<>();
+
+        for (int i = 0; i < threadCount; ++i) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        value.set(eventual.get());
+                        finished.countDown();
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }).start();
+        }
+
+        started.await();
+        assertFalse(finished.await(20, TimeUnit.MILLISECONDS));
+        eventual.complete(TestResult.SUCCESS, "Done");
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("Done", value.get());
+    }
+
+    @Test
+    public void timedGetThrowsIfNotCompleted() throws Exception {
+        Eventual<TestResult, String> eventual = new Eventual<>();
+
+        try {
+            eventual.get(10, TimeUnit.MILLISECONDS);
+            fail("Should have thrown exception.");
+        } catch (TimeoutException e) {
+        }
+        eventual.await(10, TimeUnit.MILLISECONDS);
+        assertFalse(eventual.isDone());
+
+        eventual.complete(TestResult.SUCCESS, null);
+        assertNull(eventual.get(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void allCallbacksAreExecutedOnceInOrder() throws Exception {
+        Eventual<TestResult, String> eventual = new Eventual<>();
+        final List<String> calls = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 3; ++i) {
+            final int n = i;
+            eventual.onSuccess(new PrecipiceFunction<TestResult, String>() {
+                @Override
+                public void apply(TestResult result, String argument) {
+                    calls.add("success-" + n + "-" + argument);
+                }
+            });
+        }
+        eventual.onError(new PrecipiceFunction<TestResult, Throwable>() {
+            @Override
+            public void apply(TestResult result, Throwable argument) {
+                calls.add("error");
+            }
+        });
+        eventual.onComplete(new PrecipiceFunction<TestResult, ResultView<TestResult, String>>() {
+            @Override
+            public void apply(TestResult result, ResultView<TestResult, String> view) {
+                calls.add("complete-" + result + "-" + view.getValue());
+            }
+        });
+
+        assertTrue(eventual.complete(TestResult.SUCCESS, "v"));
+        assertFalse(eventual.complete(TestResult.SUCCESS, "v2"));
+
+        eventual.onSuccess(new PrecipiceFunction<TestResult, String>() {
+            @Override
+            public void apply(TestResult result, String argument) {
+                calls.add("late-" + argument);
+            }
+        });
+
+        assertEquals(5, calls.size());
+        assertEquals("success-0-v", calls.get(0));
+        assertEquals("success-1-v", calls.get(1));
+        assertEquals("success-2-v", calls.get(2));
+        assertEquals("complete-SUCCESS-v", calls.get(3));
+        assertEquals("late-v", calls.get(4));
+    }
+
+    @Test
+    public void callbacksRegisteredConcurrentlyWithCompletionRunOnce() throws Exception {
+        for (int attempt = 0; attempt < 100; ++attempt) {
+            final Eventual<TestResult, String> eventual = new Eventual<>();
+            final AtomicInteger count = new AtomicInteger(0);
+            final CountDownLatch ready = new CountDownLatch(1);
+            final PrecipiceFunction<TestResult, ResultView<TestResult, String>> fn =
+                    new PrecipiceFunction<TestResult, ResultView<TestResult, String>>() {
+                        @Override
+                        public void apply(TestResult result, ResultView<TestResult, String> view) {
+                            count.incrementAndGet();
+                        }
+                    };
+
+            Thread registering = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    for (int i = 0; i < 50; ++i) {
+                        eventual.onComplete(fn);
+                    }
+                }
+            });
+            registering.start();
+            ready.await();
+            eventual.completeExceptionally(TestResult.ERROR, new IOException());
+            registering.join();
+
+            assertEquals(50, count.get());
+        }
+    }
+
+    @Test
+    public void timedOutWaitersAreUnlinked() throws Exception {
+        final Eventual<TestResult, String> eventual = new Eventual<>();
+
+        for (int i = 0; i < 100; ++i) {
+            eventual.await(1, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, eventual.waiterCount());
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                waiting.countDown();
+                try {
+                    eventual.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        blocked.start();
+        waiting.await();
+        while (eventual.waiterCount() != 1) {
+            Thread.yield();
+        }
+        for (int i = 0; i < 10; ++i) {
+            try {
+                eventual.get(1, TimeUnit.MILLISECONDS);
+                fail("Should have timed out.");
+            } catch (TimeoutException e) {
+            }
+        }
+        assertEquals(1, eventual.waiterCount());
+
+        blocked.interrupt();
+        blocked.join();
+        assertEquals(0, eventual.waiterCount());
+    }
 }
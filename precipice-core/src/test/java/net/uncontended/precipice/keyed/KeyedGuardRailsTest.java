@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.keyed;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.circuit.CircuitBreakerConfig;
+import net.uncontended.precipice.circuit.CircuitBreakerConfigBuilder;
+import net.uncontended.precipice.circuit.ConsecutiveFailureBreaker;
+import net.uncontended.precipice.circuit.DefaultCircuitBreaker;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import net.uncontended.precipice.simulation.VirtualClock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class KeyedGuardRailsTest {
+
+    private VirtualClock clock;
+    private KeyedGuardRails<String, TimeoutableResult, Rejected> rails;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock();
+        rails = new KeyedGuardRails<>(new GuardRailTemplate<String, TimeoutableResult, Rejected>() {
+            @Override
+            public void configure(String key, GuardRailBuilder<TimeoutableResult, Rejected> builder) {
+                builder.resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                        .rejectedCounts(new TotalCounts<>(Rejected.class))
+                        .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1));
+            }
+        }, 16, 10, TimeUnit.SECONDS, clock);
+    }
+
+    @Test
+    public void railsAreCreatedLazilyAndReused() {
+        assertNull(rails.getIfPresent("a"));
+
+        GuardRail<TimeoutableResult, Rejected> rail = rails.get("a");
+        assertEquals("a", rail.getName());
+        assertSame(rail, rails.get("a"));
+        assertSame(rail, rails.getIfPresent("a"));
+        assertEquals(1, rails.size());
+
+        assertNull(rails.acquirePermits("a", 1L, clock.nanoTime()));
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, rails.acquirePermits("a", 1L, clock.nanoTime()));
+        assertNull(rails.acquirePermits("b", 1L, clock.nanoTime()));
+        assertEquals(1, rails.inFlight("a"));
+    }
+
+    @Test
+    public void idleRailsAreEvictedOnlyWithoutPermitsInFlight() {
+        assertNull(rails.acquirePermits("a", 1L, clock.nanoTime()));
+        assertNull(rails.acquirePermits("b", 1L, clock.nanoTime()));
+        GuardRail<TimeoutableResult, Rejected> a = rails.get("a");
+        rails.get("b").releasePermits(1L, TimeoutableResult.SUCCESS, 0L, clock.nanoTime());
+
+        clock.advance(11, TimeUnit.SECONDS);
+        assertEquals(1, rails.evict(clock.nanoTime()));
+        assertNull(rails.getIfPresent("b"));
+        assertSame(a, rails.getIfPresent("a"));
+
+        a.releasePermitsWithoutResult(1L, clock.nanoTime());
+        assertEquals(0, rails.inFlight("a"));
+        assertEquals(1, rails.evict(clock.nanoTime()));
+        assertEquals(0, rails.size());
+    }
+
+    @Test
+    public void evictionTrimsLeastRecentlyUsedRailsBelowMaxSize() {
+        for (int i = 0; i < 16; ++i) {
+            rails.get(Integer.toString(i));
+            clock.advance(1, TimeUnit.MILLISECONDS);
+        }
+        rails.get("0");
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertEquals(16, rails.size());
+
+        assertEquals(1, rails.evict(clock.nanoTime()));
+        assertEquals(15, rails.size());
+        assertNotNull(rails.getIfPresent("0"));
+        assertNull(rails.getIfPresent("1"));
+        assertNotNull(rails.getIfPresent("2"));
+    }
+
+    @Test
+    public void createOnlyEnforcesTheSizeBound() {
+        assertNull(rails.acquirePermits("0", 1L, clock.nanoTime()));
+        for (int i = 1; i < 16; ++i) {
+            rails.get(Integer.toString(i));
+        }
+        clock.advance(11, TimeUnit.SECONDS);
+
+        rails.get("16");
+        assertEquals(16, rails.size());
+        assertNotNull(rails.getIfPresent("0"));
+        assertNotNull(rails.getIfPresent("16"));
+    }
+
+    @Test
+    public void scheduledEvictionEvictsIdleRailsUnderMaxSize() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        rails.scheduleEviction(executor, 1, TimeUnit.SECONDS);
+
+        ArgumentCaptor<Runnable> eviction = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).scheduleAtFixedRate(eviction.capture(), eq(1L), eq(1L), eq(TimeUnit.SECONDS));
+
+        rails.get("a");
+        clock.advance(5, TimeUnit.SECONDS);
+        rails.get("b");
+        clock.advance(6, TimeUnit.SECONDS);
+        eviction.getValue().run();
+        assertEquals(1, rails.size());
+        assertNull(rails.getIfPresent("a"));
+        assertNotNull(rails.getIfPresent("b"));
+    }
+
+    @Test
+    public void sharedMetricsTemplateGivesEveryKeyTheSameMetrics() {
+        TotalCounts<TimeoutableResult> resultCounts = new TotalCounts<>(TimeoutableResult.class);
+        TotalCounts<Rejected> rejectedCounts = new TotalCounts<>(Rejected.class);
+        KeyedGuardRails<String, TimeoutableResult, Rejected> shared = new KeyedGuardRails<>(
+                new SharedMetricsTemplate<>(resultCounts, rejectedCounts,
+                        new BackPressureTemplate<String, Rejected>() {
+                            @Override
+                            public List<BackPressure<Rejected>> create(String key) {
+                                return Collections.<BackPressure<Rejected>>singletonList(
+                                        new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1));
+                            }
+                        }), 16, 10, TimeUnit.SECONDS, clock);
+
+        GuardRail<TimeoutableResult, Rejected> a = shared.get("a");
+        GuardRail<TimeoutableResult, Rejected> b = shared.get("b");
+        assertSame(resultCounts, a.getResultCounts());
+        assertSame(resultCounts, b.getResultCounts());
+        assertSame(rejectedCounts, b.getRejectedCounts());
+        assertSame(a.getResultLatency(), b.getResultLatency());
+
+        assertNull(shared.acquirePermits("a", 1L, clock.nanoTime()));
+        assertNull(shared.acquirePermits("b", 1L, clock.nanoTime()));
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, shared.acquirePermits("b", 1L, clock.nanoTime()));
+        a.releasePermits(1L, TimeoutableResult.SUCCESS, 0L, clock.nanoTime());
+        b.releasePermits(1L, TimeoutableResult.ERROR, 0L, clock.nanoTime());
+        assertEquals(1, resultCounts.getCount(TimeoutableResult.SUCCESS));
+        assertEquals(1, resultCounts.getCount(TimeoutableResult.ERROR));
+        assertEquals(1, rejectedCounts.getCount(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED));
+    }
+
+    @Test
+    public void sharedMetricsTemplateRejectsCircuitBreakersThatReadSharedCounts() {
+        final CircuitBreakerConfig<Rejected> config = new CircuitBreakerConfigBuilder<>(Rejected.CIRCUIT_OPEN).build();
+        SharedMetricsTemplate<String, TimeoutableResult, Rejected> template = new SharedMetricsTemplate<>(
+                new TotalCounts<>(TimeoutableResult.class), new TotalCounts<>(Rejected.class),
+                new BackPressureTemplate<String, Rejected>() {
+                    @Override
+                    public List<BackPressure<Rejected>> create(String key) {
+                        if ("consecutive".equals(key)) {
+                            return Collections.<BackPressure<Rejected>>singletonList(
+                                    new ConsecutiveFailureBreaker<>(config));
+                        }
+                        return Collections.<BackPressure<Rejected>>singletonList(new DefaultCircuitBreaker<>(config));
+                    }
+                });
+        KeyedGuardRails<String, TimeoutableResult, Rejected> shared =
+                new KeyedGuardRails<>(template, 16, 10, TimeUnit.SECONDS, clock);
+
+        assertNotNull(shared.get("consecutive"));
+        try {
+            shared.get("default");
+            fail("Expected circuit breaker reading shared counts to be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(DefaultCircuitBreaker.class.getName()));
+        }
+        assertNull(shared.getIfPresent("default"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.Precipice;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class ConsistentHashRingTest {
+
+    @Test
+    public void keysMapToTheSameIndicesAndSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, 100);
+        int[] indices = new int[4];
+        int[] again = new int[4];
+        int[] counts = new int[4];
+
+        for (int i = 0; i < 10000; ++i) {
+            String key = "key-" + i;
+            assertEquals(4, ring.nextIndices(key, indices));
+            ring.nextIndices(key, again);
+            assertArrayEquals(indices, again);
+            ++counts[indices[0]];
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - 2500) < 500);
+        }
+    }
+
+    @Test
+    public void addingAnIndexOnlyMovesKeysToIt() {
+        ConsistentHashRing four = new ConsistentHashRing(4, 100);
+        ConsistentHashRing five = new ConsistentHashRing(5, 100);
+        int[] before = new int[4];
+        int[] after = new int[5];
+
+        int moved = 0;
+        for (int i = 0; i < 10000; ++i) {
+            String key = "key-" + i;
+            four.nextIndices(key, before);
+            five.nextIndices(key, after);
+            if (before[0] != after[0]) {
+                assertEquals(4, after[0]);
+                ++moved;
+            }
+        }
+        assertTrue(Math.abs(moved - 2000) < 500);
+    }
+
+    @Test
+    public void keyedPatternFallsBackAlongTheRing() {
+        ConsistentHashRing ring = new ConsistentHashRing(3, 50, 2);
+        List<Precipice<TimeoutableResult, Rejected>> precipices = Arrays.asList(precipice(), precipice(),
+                precipice());
+        Pattern<TimeoutableResult, Precipice<TimeoutableResult, Rejected>> pattern = new Pattern<>(precipices, ring);
+
+        int[] indices = new int[3];
+        ring.nextIndices("user-1", indices);
+        assertSame(precipices.get(indices[0]), pattern.getPrecipices("user-1", 1L, 0L).iterator().next());
+
+        Precipice<TimeoutableResult, Rejected> owner = precipices.get(indices[0]);
+        when(owner.guardRail().acquirePermits(1L, 0L)).thenReturn(Rejected.CIRCUIT_OPEN);
+        Iterator<Precipice<TimeoutableResult, Rejected>> fallback = pattern.getPrecipices("user-1", 1L, 0L).iterator();
+        assertSame(precipices.get(indices[1]), fallback.next());
+        assertFalse(fallback.hasNext());
+
+        Pattern<TimeoutableResult, Precipice<TimeoutableResult, Rejected>> unkeyed = new Pattern<>(precipices,
+                new RoundRobinLoadBalancer(3));
+        try {
+            unkeyed.getPrecipices("user-1", 1L, 0L);
+            fail("Should have thrown exception.");
+        } catch (IllegalStateException e) {
+            assertEquals("Strategy does not support keys.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void keysFollowNodeIdsRegardlessOfPoolOrder() {
+        List<Precipice<TimeoutableResult, Rejected>> precipices = Arrays.asList(precipice("a"), precipice("b"),
+                precipice("c"));
+        List<Precipice<TimeoutableResult, Rejected>> reordered = Arrays.asList(precipices.get(2),
+                precipices.get(0), precipices.get(1));
+        ConsistentHashRing ring = ConsistentHashRing.fromGuardRailNames(precipices, 50);
+        ConsistentHashRing reorderedRing = ConsistentHashRing.fromGuardRailNames(reordered, 50);
+        int[] indices = new int[3];
+        int[] reorderedIndices = new int[3];
+
+        for (int i = 0; i < 1000; ++i) {
+            String key = "key-" + i;
+            ring.nextIndices(key, indices);
+            reorderedRing.nextIndices(key, reorderedIndices);
+            for (int j = 0; j < 3; ++j) {
+                assertSame(precipices.get(indices[j]), reordered.get(reorderedIndices[j]));
+            }
+        }
+    }
+
+    private static Precipice<TimeoutableResult, Rejected> precipice(String name) {
+        Precipice<TimeoutableResult, Rejected> precipice = precipice();
+        when(precipice.guardRail().getName()).thenReturn(name);
+        return precipice;
+    }
+
+    private static Precipice<TimeoutableResult, Rejected> precipice() {
+        Precipice<TimeoutableResult, Rejected> precipice = mock(Precipice.class);
+        GuardRail<TimeoutableResult, Rejected> guardRail = mock(GuardRail.class);
+        when(precipice.guardRail()).thenReturn(guardRail);
+        when(guardRail.acquirePermits(1L, 0L)).thenReturn(null);
+        return precipice;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.circuit.CircuitBreaker;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.simulation.VirtualClock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class HealthAwareTest {
+
+    private VirtualClock clock;
+    private HealthAware strategy;
+    private CircuitBreaker<Rejected>[] breakers;
+    private GuardRail<TimeoutableResult, Rejected>[] guardRails;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock();
+        strategy = new HealthAware(new RoundRobinLoadBalancer(3), 3, 1, TimeUnit.SECONDS, clock);
+        breakers = new CircuitBreaker[3];
+        guardRails = new GuardRail[3];
+        for (int i = 0; i < 3; ++i) {
+            breakers[i] = mock(CircuitBreaker.class);
+            guardRails[i] = new GuardRailBuilder<TimeoutableResult, Rejected>()
+                    .name("Service" + i)
+                    .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                    .rejectedCounts(new TotalCounts<>(Rejected.class))
+                    .addBackPressure(breakers[i])
+                    .addBackPressure(strategy.<Rejected>tracker(i))
+                    .clock(clock)
+                    .build();
+        }
+    }
+
+    @Test
+    public void openBreakersAreSkippedUntilTheyClose() {
+        when(breakers[1].isOpen()).thenReturn(true);
+        guardRails[1].releasePermits(1L, TimeoutableResult.ERROR, 0L, clock.nanoTime());
+        assertFalse(strategy.isAvailable(1));
+
+        int[] indices = new int[3];
+        for (int i = 0; i < 10; ++i) {
+            int count = strategy.nextIndices(indices);
+            assertEquals(2, count);
+            assertNotEquals(1, indices[0]);
+            assertNotEquals(1, indices[1]);
+        }
+
+        when(breakers[1].isOpen()).thenReturn(false);
+        guardRails[1].releasePermits(1L, TimeoutableResult.SUCCESS, 0L, clock.nanoTime());
+        assertTrue(strategy.isAvailable(1));
+        assertEquals(3, strategy.nextIndices(indices));
+    }
+
+    @Test
+    public void openIndicesAreProbedOncePerInterval() {
+        when(breakers[2].isOpen()).thenReturn(true);
+        assertNull(guardRails[2].acquirePermits(1L, clock.nanoTime()));
+        assertFalse(strategy.isAvailable(2));
+
+        int[] indices = new int[3];
+        assertEquals(2, strategy.nextIndices(indices));
+
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(3, strategy.nextIndices(indices));
+        assertEquals(2, indices[2]);
+        assertEquals(2, strategy.nextIndices(indices));
+
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(3, strategy.nextIndices(indices));
+    }
+
+    @Test
+    public void trackerRequiresCircuitBreaker() {
+        try {
+            new GuardRailBuilder<TimeoutableResult, Rejected>()
+                    .name("NoBreaker")
+                    .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                    .rejectedCounts(new TotalCounts<>(Rejected.class))
+                    .addBackPressure(strategy.<Rejected>tracker(0))
+                    .build();
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("GuardRail NoBreaker does not have a CircuitBreaker.", e.getMessage());
+        }
+    }
+}
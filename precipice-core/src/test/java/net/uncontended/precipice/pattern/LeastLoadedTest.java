@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.metrics.latency.TotalLatency;
+import net.uncontended.precipice.metrics.latency.WritableLatency;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.simulation.VirtualClock;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LeastLoadedTest {
+
+    @Test
+    public void indicesAreOrderedByLoad() {
+        final long[] loads = {5, 1, 3, 1};
+        PatternStrategy strategy = new LeastLoaded(4, 3, new LoadMetric() {
+            @Override
+            public long load(int index) {
+                return loads[index];
+            }
+        });
+
+        for (int i = 0; i < 100; ++i) {
+            Iterator<Integer> indices = strategy.nextIndices().iterator();
+            Set<Integer> firstTwo = new HashSet<>();
+            firstTwo.add(indices.next());
+            firstTwo.add(indices.next());
+            assertTrue(firstTwo.contains(1));
+            assertTrue(firstTwo.contains(3));
+            assertEquals(2, indices.next().intValue());
+            assertFalse(indices.hasNext());
+        }
+    }
+
+    @Test
+    public void peakEwmaWeightsLatencyByOutstandingRequests() {
+        VirtualClock clock = new VirtualClock();
+        PeakEwmaLoad load = new PeakEwmaLoad(2, 1, TimeUnit.SECONDS, clock);
+        TotalLatency<TimeoutableResult> delegate = new TotalLatency<>(TimeoutableResult.class);
+        WritableLatency<TimeoutableResult> slow = load.latency(0, delegate);
+        WritableLatency<TimeoutableResult> fast = load.latency(1, delegate);
+        BackPressure<Rejected> fastPermits = load.backPressure(1);
+
+        slow.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(10), clock.nanoTime());
+        fast.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(1), clock.nanoTime());
+        assertEquals(2, delegate.getHistogram(TimeoutableResult.SUCCESS).getTotalCount());
+        assertTrue(load.load(1) < load.load(0));
+
+        assertNull(fastPermits.acquirePermit(20L, clock.nanoTime()));
+        assertEquals(20, load.outstanding(1));
+        assertTrue(load.load(0) < load.load(1));
+
+        PatternStrategy strategy = new LeastLoaded(2, 1, load);
+        assertEquals(0, strategy.nextIndices().iterator().next().intValue());
+
+        fastPermits.releasePermit(20L, TimeoutableResult.SUCCESS, clock.nanoTime());
+        assertEquals(1, strategy.nextIndices().iterator().next().intValue());
+    }
+
+    @Test
+    public void peakEwmaDecaysTowardsLowerLatency() {
+        VirtualClock clock = new VirtualClock();
+        PeakEwmaLoad load = new PeakEwmaLoad(1, 1, TimeUnit.SECONDS, clock);
+        WritableLatency<TimeoutableResult> latency = load.latency(0, new TotalLatency<>(TimeoutableResult.class));
+
+        latency.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(10), clock.nanoTime());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), load.load(0));
+
+        clock.advance(1, TimeUnit.SECONDS);
+        latency.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(1), clock.nanoTime());
+        double expected = TimeUnit.MILLISECONDS.toNanos(10) * Math.exp(-1) + TimeUnit.MILLISECONDS.toNanos(1)
+                * (1 - Math.exp(-1));
+        assertEquals(expected, load.load(0), 1000.0);
+
+        latency.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(20), clock.nanoTime());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(20), load.load(0));
+    }
+}
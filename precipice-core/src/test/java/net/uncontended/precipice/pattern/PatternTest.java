@@ -31,6 +31,7 @@ import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -107,6 +108,37 @@ public class PatternTest {
         assertSame(precipice2, controllableList.get(1));
     }
 
+    @Test
+    public void primitiveStrategiesFillTheIndexArray() {
+        PrimitivePatternStrategy primitive = mock(PrimitivePatternStrategy.class);
+        when(primitive.acquireCount()).thenReturn(1);
+        when(primitive.nextIndices(any(int[].class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                int[] indices = (int[]) invocation.getArguments()[0];
+                assertEquals(3, indices.length);
+                indices[0] = 2;
+                indices[1] = 0;
+                return 2;
+            }
+        });
+        when(guardRail3.acquirePermits(1L, nanoTime)).thenReturn(Rejected.CIRCUIT_OPEN);
+        when(guardRail1.acquirePermits(1L, nanoTime)).thenReturn(null);
+
+        List<Precipice<TimeoutableResult, Rejected>> precipices = Arrays.asList(precipice1, precipice2, precipice3);
+        Pattern<TimeoutableResult, Precipice<TimeoutableResult, Rejected>> primitivePattern =
+                new Pattern<>(precipices, primitive, new ThreadLocalSequenceFactory<Precipice<TimeoutableResult, Rejected>>());
+
+        Sequence<Precipice<TimeoutableResult, Rejected>> sequence = primitivePattern.getPrecipices(1L, nanoTime);
+        Iterator<Precipice<TimeoutableResult, Rejected>> iterator = sequence.iterator();
+        assertSame(precipice1, iterator.next());
+        assertFalse(iterator.hasNext());
+        assertSame(sequence, primitivePattern.getPrecipices(1L, nanoTime));
+
+        verify(primitive, never()).nextIndices();
+        verifyZeroInteractions(guardRail2);
+    }
+
     @Test
     public void getAcquiresPermitsInTheCorrectOrder() {
         Integer[] indices = {2, 0, 1};
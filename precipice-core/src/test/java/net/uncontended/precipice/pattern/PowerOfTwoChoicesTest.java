@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.CallService;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PowerOfTwoChoicesTest {
+
+    @Test
+    public void lessLoadedOfTheTwoChoicesIsTriedFirst() {
+        final long[] loads = {10, 0, 10};
+        PatternStrategy strategy = new PowerOfTwoChoices(3, 2, new LoadMetric() {
+            @Override
+            public long load(int index) {
+                return loads[index];
+            }
+        });
+
+        int leastLoadedFirst = 0;
+        for (int i = 0; i < 3000; ++i) {
+            Iterator<Integer> indices = strategy.nextIndices().iterator();
+            int first = indices.next();
+            int second = indices.next();
+            assertFalse(indices.hasNext());
+            assertNotEquals(first, second);
+            assertTrue(loads[first] <= loads[second]);
+            if (first == 1) {
+                ++leastLoadedFirst;
+            }
+        }
+        // The least loaded index is sampled in two out of three pairs.
+        assertTrue(Math.abs(leastLoadedFirst - 2000) < 200);
+    }
+
+    @Test
+    public void remainingIndicesFollowTheTwoChoices() {
+        PatternStrategy strategy = new PowerOfTwoChoices(5, new LoadMetric() {
+            @Override
+            public long load(int index) {
+                return 0;
+            }
+        });
+
+        for (int i = 0; i < 100; ++i) {
+            Set<Integer> seen = new HashSet<>();
+            for (Integer index : strategy.nextIndices()) {
+                assertTrue(seen.add(index));
+            }
+            assertEquals(5, seen.size());
+        }
+    }
+
+    @Test
+    public void concurrencyLoadReadsSemaphores() {
+        List<CallService<Rejected>> services = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            services.add(new CallService<>(new GuardRailBuilder<TimeoutableResult, Rejected>()
+                    .name("Service" + i)
+                    .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                    .rejectedCounts(new TotalCounts<>(Rejected.class))
+                    .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 10))
+                    .build()));
+        }
+        ConcurrencyLoad load = new ConcurrencyLoad(services);
+
+        services.get(1).guardRail().acquirePermits(3L, 0L);
+        assertEquals(0, load.load(0));
+        assertEquals(3, load.load(1));
+
+        Pattern<TimeoutableResult, CallService<Rejected>> pattern = new Pattern<>(services,
+                new PowerOfTwoChoices(2, 1, load));
+        assertSame(services.get(0), pattern.getPrecipices(1L, 0L).iterator().next());
+    }
+}
@@ -83,4 +83,35 @@ public class RoundRobinLoadBalancerTest {
         String message = "Concerning distribution of indices returned";
         assertTrue(message, 0.15 > Math.abs(secondMean - thirdMean));
     }
+
+    @Test
+    public void primitiveIndicesMatchBoxedIndices() {
+        RoundRobinLoadBalancer strategy = new RoundRobinLoadBalancer(3, 2);
+        int[] indices = new int[3];
+
+        assertEquals(2, strategy.nextIndices(indices));
+        assertEquals(0, indices[0]);
+        assertEquals(1, indices[1]);
+
+        Iterator<Integer> iterator = strategy.nextIndices().iterator();
+        assertEquals(1, iterator.next().intValue());
+        assertEquals(2, iterator.next().intValue());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void acquireAttemptsMustBeWithinPoolSize() {
+        try {
+            new RoundRobinLoadBalancer(3, 4);
+            fail("Expected more attempts than the pool size to be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Max acquire attempts must be in [1, size]. Found: 4", e.getMessage());
+        }
+        try {
+            new RoundRobinLoadBalancer(3, 0);
+            fail("Expected zero attempts to be rejected.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Max acquire attempts must be in [1, size]. Found: 0", e.getMessage());
+        }
+    }
 }
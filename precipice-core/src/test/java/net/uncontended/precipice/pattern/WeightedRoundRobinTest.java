@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.pattern;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.CallService;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import net.uncontended.precipice.semaphore.UnlimitedSemaphore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WeightedRoundRobinTest {
+
+    @Test
+    public void scheduleIsSmooth() {
+        WeightedRoundRobin strategy = new WeightedRoundRobin(new int[]{5, 1, 1});
+        int[] indices = new int[3];
+
+        int[] expected = {0, 0, 1, 0, 2, 0, 0, 0, 0, 1};
+        for (int first : expected) {
+            assertEquals(3, strategy.nextIndices(indices));
+            assertEquals(first, indices[0]);
+            assertEquals((first + 1) % 3, indices[1]);
+            assertEquals((first + 2) % 3, indices[2]);
+        }
+    }
+
+    @Test
+    public void weightsCanBeChangedAtRuntime() {
+        WeightedRoundRobin strategy = new WeightedRoundRobin(new int[]{1, 1}, 1);
+        int[] indices = new int[2];
+        int[] counts = new int[2];
+        for (int i = 0; i < 100; ++i) {
+            strategy.nextIndices(indices);
+            ++counts[indices[0]];
+        }
+        assertEquals(50, counts[0]);
+        assertEquals(50, counts[1]);
+
+        strategy.setWeights(new int[]{0, 4});
+        assertArrayEquals(new int[]{0, 4}, strategy.getWeights());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(1, strategy.nextIndices(indices));
+            assertEquals(1, indices[0]);
+        }
+
+        try {
+            strategy.setWeights(new int[]{0, 0});
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("At least one weight must be greater than 0.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void weightsCanBeDerivedFromConcurrencyLevels() {
+        List<CallService<Rejected>> services = new ArrayList<>();
+        for (int i = 1; i <= 2; ++i) {
+            services.add(new CallService<>(new GuardRailBuilder<TimeoutableResult, Rejected>()
+                    .name("Service" + i)
+                    .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                    .rejectedCounts(new TotalCounts<>(Rejected.class))
+                    .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, i * 10))
+                    .build()));
+        }
+
+        WeightedRoundRobin strategy = WeightedRoundRobin.fromConcurrencyLevels(services);
+        assertArrayEquals(new int[]{10, 20}, strategy.getWeights());
+
+        int[] indices = new int[2];
+        int[] counts = new int[2];
+        for (int i = 0; i < 30; ++i) {
+            strategy.nextIndices(indices);
+            ++counts[indices[0]];
+        }
+        assertEquals(10, counts[0]);
+        assertEquals(20, counts[1]);
+    }
+
+    @Test
+    public void largeAndUnlimitedConcurrencyLevelsAreScaled() {
+        List<CallService<Rejected>> services = new ArrayList<>();
+        services.add(service("Small", new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 10)));
+        services.add(service("Large", new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1 << 20)));
+        services.add(service("Half", new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1 << 19)));
+        services.add(service("Unlimited", new UnlimitedSemaphore<Rejected>()));
+
+        WeightedRoundRobin strategy = WeightedRoundRobin.fromConcurrencyLevels(services);
+        assertArrayEquals(new int[]{1, 1024, 512, 1024}, strategy.getWeights());
+
+        List<CallService<Rejected>> unlimited = new ArrayList<>();
+        unlimited.add(service("Unlimited1", new UnlimitedSemaphore<Rejected>()));
+        unlimited.add(service("Unlimited2", new UnlimitedSemaphore<Rejected>()));
+        strategy = WeightedRoundRobin.fromConcurrencyLevels(unlimited);
+        assertArrayEquals(new int[]{1024, 1024}, strategy.getWeights());
+        int[] indices = new int[2];
+        strategy.nextIndices(indices);
+        assertEquals(0, indices[0]);
+        strategy.nextIndices(indices);
+        assertEquals(1, indices[0]);
+    }
+
+    private static CallService<Rejected> service(String name, BackPressure<Rejected> semaphore) {
+        return new CallService<>(new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name(name)
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(semaphore)
+                .build());
+    }
+}
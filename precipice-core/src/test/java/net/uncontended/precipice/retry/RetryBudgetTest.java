@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.retry;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.simulation.VirtualClock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryBudgetTest {
+
+    private VirtualClock clock;
+    private RetryBudget<Rejected> budget;
+    private GuardRail<TimeoutableResult, Rejected> guardRail;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock();
+        budget = new RetryBudget<>(Rejected.RATE_LIMIT_EXCEEDED, 0.5, 1, 10, TimeUnit.SECONDS);
+        guardRail = new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Retry")
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(budget)
+                .clock(clock)
+                .build();
+    }
+
+    @Test
+    public void retriesAreLimitedToRatioOfFirstAttempts() {
+        for (int i = 0; i < 4; ++i) {
+            assertNull(guardRail.acquirePermits(1L, clock.nanoTime()));
+        }
+        assertEquals(3, budget.availableRetries(clock.nanoTime()));
+
+        for (int i = 0; i < 3; ++i) {
+            assertNull(budget.acquireRetry(clock.nanoTime()));
+            // The retry acquires its permit through the guard rail, which does not add to the budget.
+            assertNull(guardRail.acquirePermits(1L, clock.nanoTime()));
+        }
+        assertEquals(Rejected.RATE_LIMIT_EXCEEDED, budget.acquireRetry(clock.nanoTime()));
+    }
+
+    @Test
+    public void refundedRetriesAreReturnedToTheBudget() {
+        assertEquals(1, budget.availableRetries(clock.nanoTime()));
+        assertNull(budget.acquireRetry(clock.nanoTime()));
+        assertEquals(Rejected.RATE_LIMIT_EXCEEDED, budget.acquireRetry(clock.nanoTime()));
+
+        budget.refundRetry(clock.nanoTime());
+        assertEquals(1, budget.availableRetries(clock.nanoTime()));
+        assertNull(budget.acquireRetry(clock.nanoTime()));
+    }
+
+    @Test
+    public void depositsExpireWithTheWindow() {
+        for (int i = 0; i < 10; ++i) {
+            guardRail.acquirePermits(1L, clock.nanoTime());
+        }
+        assertEquals(6, budget.availableRetries(clock.nanoTime()));
+
+        clock.advance(11, TimeUnit.SECONDS);
+        assertEquals(1, budget.availableRetries(clock.nanoTime()));
+        assertNull(budget.acquireRetry(clock.nanoTime()));
+        assertEquals(Rejected.RATE_LIMIT_EXCEEDED, budget.acquireRetry(clock.nanoTime()));
+    }
+
+    @Test
+    public void policyBackoffIsExponentialAndCapped() {
+        RetryPolicy<Rejected> policy = new RetryPolicy<>(5, 10L, 50L, budget);
+
+        assertEquals(10L, policy.backoffMillis(1));
+        assertEquals(20L, policy.backoffMillis(2));
+        assertEquals(40L, policy.backoffMillis(3));
+        assertEquals(50L, policy.backoffMillis(4));
+        assertEquals(50L, policy.backoffMillis(100));
+
+        try {
+            new RetryPolicy<>(0, 10L, 50L, budget);
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Max attempts must be at least 1."));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.semaphore;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.test_utils.TestResult;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PrioritySemaphoreTest {
+
+    @Test
+    public void lessCriticalTiersAreShedFirst() {
+        PrioritySemaphore<Tier> semaphore = new PrioritySemaphore<>(new long[]{10, 8, 5},
+                new Tier[]{Tier.CRITICAL_SHED, Tier.DEFAULT_SHED, Tier.BATCH_SHED});
+
+        for (int i = 0; i < 5; ++i) {
+            assertNull(semaphore.acquirePermit(1L, 0L, 2));
+        }
+        assertEquals(Tier.BATCH_SHED, semaphore.acquirePermit(1L, 0L, 2));
+        assertEquals(Tier.BATCH_SHED, semaphore.acquirePermit(1L, 0L));
+
+        assertNull(semaphore.acquirePermit(3L, 0L, 1));
+        assertEquals(Tier.DEFAULT_SHED, semaphore.acquirePermit(1L, 0L, 1));
+
+        assertNull(semaphore.acquirePermit(2L, 0L, 0));
+        assertEquals(Tier.CRITICAL_SHED, semaphore.acquirePermit(1L, 0L, 0));
+        assertEquals(0, semaphore.remainingCapacity());
+
+        semaphore.releasePermit(3L, 0L);
+        assertEquals(0, semaphore.remainingCapacity(2));
+        assertEquals(1, semaphore.remainingCapacity(1));
+        assertNull(semaphore.acquirePermit(1L, 0L, 1));
+        assertEquals(8, semaphore.currentConcurrencyLevel());
+    }
+
+    @Test
+    public void rejectionsAreCountedPerTier() {
+        PrioritySemaphore<Tier> semaphore = new PrioritySemaphore<>(new long[]{2, 1},
+                new Tier[]{Tier.CRITICAL_SHED, Tier.BATCH_SHED});
+        TotalCounts<Tier> rejectedCounts = new TotalCounts<>(Tier.class);
+        GuardRail<TestResult, Tier> guardRail = new GuardRailBuilder<TestResult, Tier>()
+                .name("Priority")
+                .resultCounts(new TotalCounts<>(TestResult.class))
+                .rejectedCounts(rejectedCounts)
+                .addBackPressure(semaphore)
+                .build();
+
+        assertNull(guardRail.acquirePermits(1L, 0L, 1));
+        assertEquals(Tier.BATCH_SHED, guardRail.acquirePermits(1L, 0L, 1));
+        assertEquals(Tier.BATCH_SHED, guardRail.acquirePermits(1L, 0L));
+        assertNull(guardRail.acquirePermits(1L, 0L, 0));
+        assertEquals(Tier.CRITICAL_SHED, guardRail.acquirePermits(1L, 0L, 0));
+
+        assertEquals(2, rejectedCounts.getCount(Tier.BATCH_SHED));
+        assertEquals(1, rejectedCounts.getCount(Tier.CRITICAL_SHED));
+    }
+
+    @Test
+    public void tierLimitsMustNotIncrease() {
+        try {
+            new PrioritySemaphore<>(new long[]{5, 10}, new Tier[]{Tier.CRITICAL_SHED, Tier.BATCH_SHED});
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Less critical tiers cannot have higher limits. Found: 10 after 5", e.getMessage());
+        }
+    }
+
+    private enum Tier {
+        CRITICAL_SHED,
+        DEFAULT_SHED,
+        BATCH_SHED
+    }
+}
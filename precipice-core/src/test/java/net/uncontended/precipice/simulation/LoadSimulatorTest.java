@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.simulation;
+
+import net.uncontended.precipice.BackPressure;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rate.RateLimiter;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoadSimulatorTest {
+
+    @Test
+    public void sameSeedProducesSameReport() {
+        SimulationReport<Rejected> first = simulate(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 10), 7L);
+        SimulationReport<Rejected> second = simulate(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 10), 7L);
+
+        assertEquals(first.arrivals(), second.arrivals());
+        assertEquals(first.rejected(), second.rejected());
+        for (TimeoutableResult result : TimeoutableResult.values()) {
+            assertEquals(first.results(result), second.results(result));
+        }
+        assertEquals(first.latency(), second.latency());
+    }
+
+    @Test
+    public void overloadedSemaphoreRejects() {
+        SimulationReport<Rejected> report = simulate(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 10), 1L);
+
+        long admitted = 0;
+        for (TimeoutableResult result : TimeoutableResult.values()) {
+            admitted += report.results(result);
+        }
+        assertTrue(report.arrivals() > 50000);
+        assertEquals(report.arrivals(), admitted + report.rejected());
+        assertEquals(report.rejected(), report.rejected(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED));
+        assertTrue(report.rejectionRate() > 0.1);
+        assertTrue(report.throughputPerSecond() > 0);
+    }
+
+    @Test
+    public void rateLimiterUsesVirtualTime() {
+        RateLimiter<Rejected> limiter = new RateLimiter<>(Rejected.RATE_LIMIT_EXCEEDED, 100, 1, TimeUnit.SECONDS);
+        VirtualClock clock = new VirtualClock(TimeUnit.DAYS.toNanos(1), 0L);
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(limiter, clock);
+        LoadSimulator<Rejected> simulator = new LoadSimulator<>(guardRail, clock, Arrivals.constant(1000),
+                Backends.fixed(1, TimeUnit.MILLISECONDS, 0.0), 100L, 1L);
+
+        SimulationReport<Rejected> report = simulator.run(10, TimeUnit.SECONDS);
+
+        assertEquals(9999, report.arrivals());
+        assertEquals(1000, report.results(TimeoutableResult.SUCCESS));
+        assertEquals(8999, report.rejected(Rejected.RATE_LIMIT_EXCEEDED));
+        assertEquals(100.0, report.throughputPerSecond(), 0.1);
+    }
+
+    @Test
+    public void slowRequestsTimeOut() {
+        VirtualClock clock = new VirtualClock();
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(
+                new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1000), clock);
+        LoadSimulator<Rejected> simulator = new LoadSimulator<>(guardRail, clock, Arrivals.constant(100),
+                Backends.fixed(50, TimeUnit.MILLISECONDS, 0.0), 20L, 1L);
+
+        SimulationReport<Rejected> report = simulator.run(1, TimeUnit.SECONDS);
+
+        assertEquals(report.arrivals(), report.results(TimeoutableResult.TIMEOUT));
+        assertEquals(20, report.latencyAtPercentile(100.0, TimeUnit.MILLISECONDS));
+    }
+
+    private static SimulationReport<Rejected> simulate(BackPressure<Rejected> backPressure, long seed) {
+        VirtualClock clock = new VirtualClock();
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(backPressure, clock);
+        LoadSimulator<Rejected> simulator = new LoadSimulator<>(guardRail, clock, Arrivals.poisson(2000),
+                Backends.saturating(10, TimeUnit.MILLISECONDS, 15, 0.01), 100L, seed);
+        return simulator.run(30, TimeUnit.SECONDS);
+    }
+
+    private static GuardRail<TimeoutableResult, Rejected> guardRail(BackPressure<Rejected> backPressure,
+                                                                   VirtualClock clock) {
+        return new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Simulation")
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(backPressure)
+                .clock(clock)
+                .build();
+    }
+}
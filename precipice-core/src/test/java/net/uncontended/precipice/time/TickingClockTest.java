@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.time;
+
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TickingClockTest {
+
+    private TickingClock clock;
+
+    @After
+    public void tearDown() {
+        clock.stop();
+    }
+
+    @Test
+    public void cachedTimeAdvancesWhileRunning() throws InterruptedException {
+        clock = new TickingClock("test-clock", 1, TimeUnit.MILLISECONDS);
+        clock.start();
+        assertTrue(clock.isRunning());
+
+        long start = clock.nanoTime();
+        Thread.sleep(20);
+        long end = clock.nanoTime();
+
+        assertTrue(end - start >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(end - System.nanoTime() <= 0);
+    }
+
+    @Test
+    public void clockCanBeStoppedAndRestarted() throws InterruptedException {
+        clock = new TickingClock("test-clock", 1, TimeUnit.MILLISECONDS);
+        clock.start();
+        clock.stop();
+        assertFalse(clock.isRunning());
+
+        long stopped = clock.nanoTime();
+        Thread.sleep(5);
+        assertTrue(clock.nanoTime() - stopped > 0);
+
+        clock.start();
+        assertTrue(clock.isRunning());
+        long start = clock.nanoTime();
+        Thread.sleep(20);
+        assertTrue(clock.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void tickLagIsOnlyAvailableWhenStatsAreEnabled() throws InterruptedException {
+        clock = new TickingClock("test-clock", 1, TimeUnit.MILLISECONDS);
+        try {
+            clock.tickLagSinceLastCall();
+            fail("Should have thrown exception.");
+        } catch (IllegalStateException e) {
+            assertEquals("Stats are not enabled for this clock.", e.getMessage());
+        }
+
+        clock = new TickingClock("test-clock", 1, TimeUnit.MILLISECONDS, true, true);
+        clock.start();
+        Thread.sleep(20);
+
+        Histogram lag = clock.tickLagSinceLastCall();
+        assertTrue(lag.getTotalCount() > 0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.timeout;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedTimeoutServiceTest {
+
+    private ShardedTimeoutService timeoutService;
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() {
+        timeoutService.stop();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutsScheduledFromManyThreadsOccur() throws InterruptedException {
+        timeoutService = new ShardedTimeoutService("Test-Timeout-Service", 4);
+        int threadCount = 8;
+        final CountDownLatch latch = new CountDownLatch(threadCount * 10);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; ++j) {
+                        timeoutService.scheduleTimeout(new Timeout() {
+                            @Override
+                            public void timeout() {
+                                latch.countDown();
+                            }
+                        }, 10L);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(4, timeoutService.shardCount());
+    }
+
+    @Test
+    public void timeoutsAreDispatchedToExecutor() throws InterruptedException {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "expiry-executor");
+            }
+        });
+        timeoutService = new ShardedTimeoutService("Test-Timeout-Service", 2, executor);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final BlockingQueue<String> threadNames = new LinkedBlockingQueue<>();
+
+        timeoutService.scheduleTimeout(new Timeout() {
+            @Override
+            public void timeout() {
+                threadNames.add(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        }, 10L);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("expiry-executor", threadNames.poll());
+    }
+}
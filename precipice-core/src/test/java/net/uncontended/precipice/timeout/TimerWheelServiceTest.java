@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.timeout;
+
+import net.uncontended.precipice.Cancellable;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.TickingClock;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelServiceTest {
+
+    private final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+    private TimerWheelService timeoutService;
+
+    @After
+    public void tearDown() {
+        timeoutService.stop();
+    }
+
+    @Test
+    public void timeoutWillOccur() throws InterruptedException {
+        timeoutService = new TimerWheelService("Test-Timeout-Service");
+        CountDownLatch latch = new CountDownLatch(1);
+
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 1), 10L);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, queue.poll().intValue());
+    }
+
+    @Test
+    public void timeoutsWillOccurInOrder() throws InterruptedException {
+        timeoutService = new TimerWheelService("Test-Timeout-Service");
+        CountDownLatch latch = new CountDownLatch(3);
+
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 3), 100L);
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 1), 10L);
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 2), 50L);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, queue.poll().intValue());
+        assertEquals(2, queue.poll().intValue());
+        assertEquals(3, queue.poll().intValue());
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotOccur() throws InterruptedException {
+        timeoutService = new TimerWheelService("Test-Timeout-Service");
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch cancelledLatch = new CountDownLatch(1);
+
+        long nanoTime = System.nanoTime();
+        Cancellable cancellable = timeoutService.scheduleCancellableTimeout(new TestTimeout(cancelledLatch, 1), 10L, nanoTime);
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 2), 50L, nanoTime);
+        cancellable.cancel();
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelledLatch.getCount());
+        assertEquals(2, queue.poll().intValue());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void longTimeoutsCascadeToExpiry() throws InterruptedException {
+        AtomicLong nanos = new AtomicLong(0);
+        timeoutService = new TimerWheelService("Test-Timeout-Service", 1, TimeUnit.MILLISECONDS, new TestClock(nanos), null);
+        CountDownLatch shortLatch = new CountDownLatch(1);
+        CountDownLatch longLatch = new CountDownLatch(1);
+
+        long hourMillis = TimeUnit.HOURS.toMillis(1);
+        timeoutService.scheduleTimeout(new TestTimeout(longLatch, 2), hourMillis, 0L);
+        timeoutService.scheduleTimeout(new TestTimeout(shortLatch, 1), 5L, 0L);
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(6));
+        assertTrue(shortLatch.await(5, TimeUnit.SECONDS));
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(hourMillis - 1));
+        assertFalse(longLatch.await(50, TimeUnit.MILLISECONDS));
+
+        nanos.set(TimeUnit.MILLISECONDS.toNanos(hourMillis));
+        assertTrue(longLatch.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, queue.poll().intValue());
+        assertEquals(2, queue.poll().intValue());
+    }
+
+    @Test
+    public void coarseServiceExpiresTimeoutsDueInTheSameTickTogether() throws InterruptedException {
+        timeoutService = TimerWheelService.coarse("Test-Timeout-Service", 20, TimeUnit.MILLISECONDS);
+        final Clock clock = TickingClock.getInstance();
+        int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicLong earlyCount = new AtomicLong(0);
+
+        for (int i = 0; i < count; ++i) {
+            long nanoTime = clock.nanoTime();
+            final long deadline = nanoTime + TimeUnit.MILLISECONDS.toNanos(100);
+            timeoutService.scheduleTimeout(new Timeout() {
+                @Override
+                public void timeout() {
+                    if (clock.nanoTime() - deadline < 0) {
+                        earlyCount.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, 100L, nanoTime);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, earlyCount.get());
+    }
+
+    @Test
+    public void timeoutsScheduledAfterIdlePeriodOccur() throws InterruptedException {
+        timeoutService = new TimerWheelService("Test-Timeout-Service");
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch latch2 = new CountDownLatch(1);
+
+        timeoutService.scheduleTimeout(new TestTimeout(latch, 1), 1L);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(20);
+
+        timeoutService.scheduleTimeout(new TestTimeout(latch2, 2), 1L);
+        assertTrue(latch2.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void timeoutsCannotBeSubmittedAfterServiceStopped() {
+        timeoutService = new TimerWheelService("Test-Timeout-Service");
+        CountDownLatch latch = new CountDownLatch(1);
+
+        timeoutService.stop();
+
+        try {
+            timeoutService.scheduleTimeout(new TestTimeout(latch, 1), 1L);
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Service has been stopped.", e.getMessage());
+        }
+    }
+
+    private class TestTimeout implements Timeout {
+
+        private final CountDownLatch latch;
+        private final int value;
+
+        private TestTimeout(CountDownLatch latch, int value) {
+            this.latch = latch;
+            this.value = value;
+        }
+
+        @Override
+        public void timeout() {
+            queue.add(value);
+            latch.countDown();
+        }
+    }
+
+    private static class TestClock implements Clock {
+
+        private final AtomicLong nanos;
+
+        private TestClock(AtomicLong nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos.get();
+        }
+    }
+}
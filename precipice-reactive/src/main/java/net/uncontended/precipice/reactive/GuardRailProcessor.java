@@ -0,0 +1,324 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.reactive;
+
+import net.uncontended.precipice.Failable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.PrecipiceFunction;
+import net.uncontended.precipice.ResultView;
+import net.uncontended.precipice.concurrent.Eventual;
+import net.uncontended.precipice.factories.Asynchronous;
+import net.uncontended.precipice.timeout.DelayQueueTimeoutService;
+import net.uncontended.precipice.timeout.Timeout;
+import net.uncontended.precipice.timeout.TimeoutService;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Reactive Streams {@link Processor} that runs an {@link Operation} for each element while
+ * holding a permit from a {@link GuardRail}. Elements are only requested from upstream once
+ * permits for them have been acquired, so when the guard rail rejects, upstream sees reduced
+ * demand instead of a {@link net.uncontended.precipice.rejected.RejectedException}.
+ * <p/>
+ * Permits are acquired in batches of up to batchSize. After a rejection the next batch is
+ * halved, and after a successful acquisition it is doubled again, up to batchSize. Each permit
+ * is released with the result of its element as soon as that element completes. Permits that
+ * were acquired for elements that never arrive are released when the stream terminates or is
+ * cancelled.
+ * <p/>
+ * Every element produces a {@link ResultView} downstream, whether it succeeded or failed. If
+ * the operation throws, the element completes with the provided error result. If a rejection
+ * leaves nothing in flight, acquisition is retried after retryMillis on the provided
+ * {@link TimeoutService}, so a subscriber that has already signalled all of its demand does not
+ * stall. By default, it is retried every {@value #DEFAULT_RETRY_MILLIS} milliseconds on
+ * {@link DelayQueueTimeoutService#DEFAULT_TIMEOUT_SERVICE}.
+ * <p/>
+ * Only a single subscriber is supported.
+ */
+public class GuardRailProcessor<Result extends Enum<Result> & Failable, Rejected extends Enum<Rejected>, T, R>
+        implements Processor<T, ResultView<Result, R>> {
+
+    public static final long DEFAULT_RETRY_MILLIS = 10L;
+
+    private final GuardRail<Result, Rejected> guardRail;
+    private final Operation<Result, T, R> operation;
+    private final Result errorResult;
+    private final long batchSize;
+    private final TimeoutService retryService;
+    private final long retryMillis;
+    private final PrecipiceFunction<Result, ResultView<Result, R>> onElementComplete = new ElementComplete();
+    private final Queue<ResultView<Result, R>> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger wip = new AtomicInteger(0);
+    private final AtomicLong demand = new AtomicLong(0);
+    private final AtomicLong prepaid = new AtomicLong(0);
+    private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+    private final AtomicReference<Subscriber<? super ResultView<Result, R>>> downstream = new AtomicReference<>();
+    private volatile Subscription upstream;
+    private volatile boolean upstreamDone = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable error;
+    // Only accessed from the drain loop.
+    private long outstanding = 0;
+    private long nextBatch;
+    private boolean terminated = false;
+
+    public GuardRailProcessor(GuardRail<Result, Rejected> guardRail, Operation<Result, T, R> operation,
+                              Result errorResult, int batchSize) {
+        this(guardRail, operation, errorResult, batchSize, DelayQueueTimeoutService.DEFAULT_TIMEOUT_SERVICE,
+                DEFAULT_RETRY_MILLIS);
+    }
+
+    public GuardRailProcessor(GuardRail<Result, Rejected> guardRail, Operation<Result, T, R> operation,
+                              Result errorResult, int batchSize, TimeoutService retryService, long retryMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be greater than 0. Found: " + batchSize);
+        } else if (retryService == null) {
+            throw new IllegalArgumentException("Retry service is required.");
+        } else if (retryMillis < 1) {
+            throw new IllegalArgumentException("Retry millis must be greater than 0. Found: " + retryMillis);
+        }
+        this.guardRail = guardRail;
+        this.operation = operation;
+        this.errorResult = errorResult;
+        this.batchSize = batchSize;
+        this.nextBatch = batchSize;
+        this.retryService = retryService;
+        this.retryMillis = retryMillis;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ResultView<Result, R>> subscriber) {
+        if (downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new DownstreamSubscription());
+            drain();
+        } else {
+            subscriber.onSubscribe(new EmptySubscription());
+            subscriber.onError(new IllegalStateException("Processor only supports a single subscriber."));
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (upstream != null || cancelled) {
+            subscription.cancel();
+        } else {
+            upstream = subscription;
+            drain();
+        }
+    }
+
+    @Override
+    public void onNext(T element) {
+        if (!takePrepaidPermit()) {
+            return;
+        }
+
+        Eventual<Result, R> promise = Asynchronous.getPromise(guardRail, 1L, guardRail.getClock().nanoTime());
+        promise.onComplete(onElementComplete);
+        try {
+            operation.execute(element, promise);
+        } catch (Exception e) {
+            promise.completeExceptionally(errorResult, e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private boolean takePrepaidPermit() {
+        for (; ; ) {
+            long permits = prepaid.get();
+            if (permits <= 0) {
+                return false;
+            } else if (prepaid.compareAndSet(permits, permits - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        for (; ; ) {
+            Subscriber<? super ResultView<Result, R>> subscriber = downstream.get();
+            Subscription subscription = upstream;
+            if (subscriber != null && subscription != null && !terminated) {
+                if (cancelled) {
+                    completed.clear();
+                    releasePrepaid();
+                    if (error != null) {
+                        terminated = true;
+                        subscriber.onError(error);
+                    }
+                } else {
+                    emit(subscriber);
+                    if (upstreamDone) {
+                        outstanding -= releasePrepaid();
+                        if (outstanding == 0) {
+                            terminated = true;
+                            if (error != null) {
+                                subscriber.onError(error);
+                            } else {
+                                subscriber.onComplete();
+                            }
+                        }
+                    } else {
+                        requestMore(subscription);
+                    }
+                }
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                break;
+            }
+        }
+    }
+
+    private void emit(Subscriber<? super ResultView<Result, R>> subscriber) {
+        long requested = demand.get();
+        long emitted = 0;
+        while (emitted != requested) {
+            ResultView<Result, R> view = completed.poll();
+            if (view == null) {
+                break;
+            }
+            subscriber.onNext(view);
+            ++emitted;
+            --outstanding;
+        }
+        if (emitted != 0) {
+            demand.addAndGet(-emitted);
+        }
+    }
+
+    private void requestMore(Subscription subscription) {
+        long wanted = Math.min(demand.get() - outstanding, nextBatch);
+        if (wanted <= 0) {
+            return;
+        }
+
+        if (guardRail.acquirePermits(wanted, guardRail.getClock().nanoTime()) == null) {
+            nextBatch = Math.min(nextBatch * 2, batchSize);
+            prepaid.addAndGet(wanted);
+            outstanding += wanted;
+            subscription.request(wanted);
+        } else {
+            nextBatch = Math.max(wanted / 2, 1);
+            if (outstanding == 0) {
+                scheduleRetry();
+            }
+        }
+    }
+
+    private long releasePrepaid() {
+        long permits = prepaid.getAndSet(0);
+        if (permits > 0) {
+            guardRail.releasePermitsWithoutResult(permits, guardRail.getClock().nanoTime());
+        }
+        return permits;
+    }
+
+    private void scheduleRetry() {
+        if (retryScheduled.compareAndSet(false, true)) {
+            retryService.scheduleTimeout(new Timeout() {
+                @Override
+                public void timeout() {
+                    retryScheduled.set(false);
+                    drain();
+                }
+            }, retryMillis);
+        }
+    }
+
+    private class ElementComplete implements PrecipiceFunction<Result, ResultView<Result, R>> {
+
+        @Override
+        public void apply(Result result, ResultView<Result, R> view) {
+            completed.offer(view);
+            drain();
+        }
+    }
+
+    private class DownstreamSubscription implements Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Request must be greater than 0. Found: " + n);
+                cancel();
+                return;
+            }
+            for (; ; ) {
+                long current = demand.get();
+                long updated = current + n;
+                if (updated < 0) {
+                    updated = Long.MAX_VALUE;
+                }
+                if (demand.compareAndSet(current, updated)) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        }
+    }
+
+    private static class EmptySubscription implements Subscription {
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.reactive;
+
+import net.uncontended.precipice.Completable;
+import net.uncontended.precipice.Failable;
+
+/**
+ * The work a {@link GuardRailProcessor} performs for each element. The operation may complete
+ * the completable synchronously or at some later point on another thread, but it must complete
+ * it exactly once. The permit held for the element is released when it is completed.
+ *
+ * @param <Result> the result type of the guard rail
+ * @param <T>      the type of the incoming elements
+ * @param <R>      the type of the value produced for each element
+ */
+@FunctionalInterface
+public interface Operation<Result extends Failable, T, R> {
+
+    void execute(T element, Completable<Result, R> completable) throws Exception;
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.reactive;
+
+import net.uncontended.precipice.Completable;
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.GuardRailBuilder;
+import net.uncontended.precipice.ResultView;
+import net.uncontended.precipice.metrics.counts.TotalCounts;
+import net.uncontended.precipice.rejected.Rejected;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.semaphore.LongSemaphore;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GuardRailProcessorTest {
+
+    private final TotalCounts<TimeoutableResult> resultCounts = new TotalCounts<>(TimeoutableResult.class);
+
+    @Test
+    public void elementsAreProcessedAndPermitsReleased() {
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(10);
+        GuardRailProcessor<TimeoutableResult, Rejected, Integer, Integer> processor =
+                new GuardRailProcessor<>(guardRail, new Operation<TimeoutableResult, Integer, Integer>() {
+                    @Override
+                    public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                        completable.complete(TimeoutableResult.SUCCESS, element * 2);
+                    }
+                }, TimeoutableResult.ERROR, 4);
+        RangePublisher publisher = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(100, subscriber.views.size());
+        assertEquals(198, subscriber.views.get(99).getValue().intValue());
+        assertTrue(subscriber.completed);
+        assertEquals(100, resultCounts.getCount(TimeoutableResult.SUCCESS));
+        assertNull(guardRail.acquirePermits(10L, 0L));
+    }
+
+    @Test
+    public void upstreamDemandIsLimitedByAvailablePermits() {
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(5);
+        final List<Completable<TimeoutableResult, Integer>> inFlight = new ArrayList<>();
+        GuardRailProcessor<TimeoutableResult, Rejected, Integer, Integer> processor =
+                new GuardRailProcessor<>(guardRail, new Operation<TimeoutableResult, Integer, Integer>() {
+                    @Override
+                    public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                        inFlight.add(completable);
+                    }
+                }, TimeoutableResult.ERROR, 5);
+        RangePublisher publisher = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(20);
+
+        assertEquals(5, publisher.requested);
+        assertEquals(5, inFlight.size());
+
+        inFlight.get(0).complete(TimeoutableResult.SUCCESS, 0);
+        inFlight.get(1).complete(TimeoutableResult.SUCCESS, 1);
+
+        assertEquals(2, subscriber.views.size());
+        assertEquals(7, publisher.requested);
+        assertEquals(7, inFlight.size());
+        assertEquals(0, resultCounts.getCount(TimeoutableResult.ERROR));
+    }
+
+    @Test
+    public void cancellingReleasesUnusedPermits() {
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(5);
+        GuardRailProcessor<TimeoutableResult, Rejected, Integer, Integer> processor =
+                new GuardRailProcessor<>(guardRail, new Operation<TimeoutableResult, Integer, Integer>() {
+                    @Override
+                    public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                        completable.complete(TimeoutableResult.SUCCESS, element);
+                    }
+                }, TimeoutableResult.ERROR, 5);
+        SilentPublisher publisher = new SilentPublisher();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(5);
+
+        assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, guardRail.acquirePermits(1L, 0L));
+
+        subscriber.subscription.cancel();
+
+        assertTrue(publisher.cancelled);
+        assertNull(guardRail.acquirePermits(5L, 0L));
+    }
+
+    @Test
+    public void operationExceptionsCompleteWithErrorResult() {
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(5);
+        final RuntimeException exception = new RuntimeException();
+        GuardRailProcessor<TimeoutableResult, Rejected, Integer, Integer> processor =
+                new GuardRailProcessor<>(guardRail, new Operation<TimeoutableResult, Integer, Integer>() {
+                    @Override
+                    public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                        throw exception;
+                    }
+                }, TimeoutableResult.ERROR, 5);
+        RangePublisher publisher = new RangePublisher(3);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(10);
+
+        assertEquals(3, subscriber.views.size());
+        assertEquals(TimeoutableResult.ERROR, subscriber.views.get(0).getResult());
+        assertSame(exception, subscriber.views.get(0).getError());
+        assertEquals(3, resultCounts.getCount(TimeoutableResult.ERROR));
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void rejectionWithNothingInFlightIsRetriedWithoutMoreDemand() throws Exception {
+        GuardRail<TimeoutableResult, Rejected> guardRail = guardRail(2);
+        GuardRailProcessor<TimeoutableResult, Rejected, Integer, Integer> processor =
+                new GuardRailProcessor<>(guardRail, new Operation<TimeoutableResult, Integer, Integer>() {
+                    @Override
+                    public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                        completable.complete(TimeoutableResult.SUCCESS, element);
+                    }
+                }, TimeoutableResult.ERROR, 2);
+        RangePublisher publisher = new RangePublisher(4);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        assertNull(guardRail.acquirePermits(2L, 0L));
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(0, publisher.requested);
+        guardRail.releasePermitsWithoutResult(2L, 0L);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!subscriber.completed && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(subscriber.completed);
+        assertEquals(4, subscriber.views.size());
+        assertEquals(4, resultCounts.getCount(TimeoutableResult.SUCCESS));
+    }
+
+    @Test
+    public void retryServiceIsRequired() {
+        try {
+            new GuardRailProcessor<>(guardRail(1), new Operation<TimeoutableResult, Integer, Integer>() {
+                @Override
+                public void execute(Integer element, Completable<TimeoutableResult, Integer> completable) {
+                }
+            }, TimeoutableResult.ERROR, 1, null, 10L);
+            fail("Should have thrown exception.");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Retry service is required.", e.getMessage());
+        }
+    }
+
+    private GuardRail<TimeoutableResult, Rejected> guardRail(long permits) {
+        return new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Reactive")
+                .resultCounts(resultCounts)
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, permits))
+                .build();
+    }
+
+    private static class RangePublisher implements Publisher<Integer>, Subscription {
+
+        private final int count;
+        private Subscriber<? super Integer> subscriber;
+        private long requested = 0;
+        private int next = 0;
+        private boolean emitting = false;
+
+        private RangePublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super Integer> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            requested += n;
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (next < requested && next < count) {
+                subscriber.onNext(next++);
+            }
+            emitting = false;
+            if (next == count) {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    private static class SilentPublisher implements Publisher<Integer>, Subscription {
+
+        private boolean cancelled = false;
+
+        @Override
+        public void subscribe(Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<ResultView<TimeoutableResult, Integer>> {
+
+        private final List<ResultView<TimeoutableResult, Integer>> views = new CopyOnWriteArrayList<>();
+        private Subscription subscription;
+        private volatile boolean completed = false;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ResultView<TimeoutableResult, Integer> view) {
+            views.add(view);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.samples.benchmarks;
+
+import net.uncontended.precipice.timeout.DelayQueueTimeoutService;
+import net.uncontended.precipice.timeout.Timeout;
+import net.uncontended.precipice.timeout.TimeoutService;
+import net.uncontended.precipice.timeout.TimerWheelService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares timeout services under a mixed workload. Most scheduled timeouts are short RPC
+ * style timeouts (5 - 50 milliseconds) and the rest are long batch style timeouts (10 minutes)
+ * that are left outstanding. The benchmark reports scheduling throughput and how late the
+ * short timeouts fired.
+ */
+public final class TimeoutServiceBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int TIMEOUTS_PER_THREAD = 250000;
+    private static final int LONG_TIMEOUT_PERCENTAGE = 20;
+    private static final long LONG_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < 3; ++i) {
+            DelayQueueTimeoutService delayQueue = new DelayQueueTimeoutService("delay-queue");
+            run("DelayQueueTimeoutService", delayQueue);
+            delayQueue.stop();
+
+            TimerWheelService wheel = new TimerWheelService("timer-wheel");
+            run("TimerWheelService", wheel);
+            wheel.stop();
+        }
+    }
+
+    private static void run(String name, final TimeoutService service) throws InterruptedException {
+        final Histogram lateness = new ConcurrentHistogram(TimeUnit.SECONDS.toNanos(10), 2);
+        final CountDownLatch shortTimeouts = new CountDownLatch(THREADS * shortTimeoutsPerThread());
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < TIMEOUTS_PER_THREAD; ++j) {
+                        long nanoTime = System.nanoTime();
+                        if (j % 100 < LONG_TIMEOUT_PERCENTAGE) {
+                            service.scheduleTimeout(new NoOpTimeout(), LONG_TIMEOUT_MILLIS, nanoTime);
+                        } else {
+                            long millis = 5 + random.nextInt(46);
+                            long deadline = nanoTime + TimeUnit.MILLISECONDS.toNanos(millis);
+                            service.scheduleTimeout(new RecordingTimeout(deadline, lateness, shortTimeouts),
+                                    millis, nanoTime);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long scheduleNanos = System.nanoTime() - startNanos;
+        shortTimeouts.await();
+
+        long total = (long) THREADS * TIMEOUTS_PER_THREAD;
+        System.out.println(String.format("%s: scheduled %s timeouts in %s ms (%s per ms). Lateness p50: %s us, " +
+                        "p99: %s us, p99.9: %s us, max: %s us",
+                name, total, TimeUnit.NANOSECONDS.toMillis(scheduleNanos),
+                total / Math.max(TimeUnit.NANOSECONDS.toMillis(scheduleNanos), 1),
+                TimeUnit.NANOSECONDS.toMicros(lateness.getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(lateness.getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMicros(lateness.getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMicros(lateness.getMaxValue())));
+    }
+
+    private static int shortTimeoutsPerThread() {
+        int longTimeouts = 0;
+        for (int j = 0; j < TIMEOUTS_PER_THREAD; ++j) {
+            if (j % 100 < LONG_TIMEOUT_PERCENTAGE) {
+                ++longTimeouts;
+            }
+        }
+        return TIMEOUTS_PER_THREAD - longTimeouts;
+    }
+
+    private static class NoOpTimeout implements Timeout {
+
+        @Override
+        public void timeout() {
+        }
+    }
+
+    private static class RecordingTimeout implements Timeout {
+
+        private final long deadline;
+        private final Histogram lateness;
+        private final CountDownLatch latch;
+
+        private RecordingTimeout(long deadline, Histogram lateness, CountDownLatch latch) {
+            this.deadline = deadline;
+            this.lateness = lateness;
+            this.latch = latch;
+        }
+
+        @Override
+        public void timeout() {
+            long late = System.nanoTime() - deadline;
+            lateness.recordValue(Math.min(Math.max(late, 0), lateness.getHighestTrackableValue()));
+            latch.countDown();
+        }
+    }
+}
@@ -69,10 +69,17 @@ public class CancellableTask<Status extends Enum<Status> & Failable, T> implemen
         cancel(null, null);
     }
 
-    public void cancel(Status cancelledStatus, Exception exception) {
-        if (state.get() == PENDING) {
-            safeCancel(cancelledStatus, exception);
-        }
+    /**
+     * Cancels the task if it has not completed. If a status is provided, the promise is completed
+     * with that status. Otherwise the promise is left incomplete and the caller is responsible for
+     * releasing anything that the promise would have released.
+     *
+     * @param cancelledStatus the status to complete the promise with, may be null
+     * @param exception       the exception to complete the promise with, may be null
+     * @return true if this call cancelled the task
+     */
+    public boolean cancel(Status cancelledStatus, Exception exception) {
+        return state.get() == PENDING && safeCancel(cancelledStatus, exception);
     }
 
     private void safeSetSuccess(T result) {
@@ -103,7 +110,8 @@ public class CancellableTask<Status extends Enum<Status> & Failable, T> implemen
         }
     }
 
-    private void safeCancel(Status status, Exception e) {
+    private boolean safeCancel(Status status, Exception e) {
+        boolean cancelled = false;
         try {
             if (state.compareAndSet(PENDING, INTERRUPTING)) {
                 if (runner != null) {
@@ -113,10 +121,12 @@ public class CancellableTask<Status extends Enum<Status> & Failable, T> implemen
                     promise.completeExceptionally(status, e);
                 }
                 state.set(DONE);
+                cancelled = true;
             }
         } catch (Throwable t) {
             Thread.getDefaultUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), t);
         }
+        return cancelled;
     }
 
     private void waitForInterruption() {
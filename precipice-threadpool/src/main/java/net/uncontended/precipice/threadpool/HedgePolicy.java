@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.threadpool;
+
+import net.uncontended.precipice.GuardRail;
+import net.uncontended.precipice.metrics.latency.LatencyRecorder;
+import net.uncontended.precipice.metrics.latency.PartitionedLatency;
+import net.uncontended.precipice.metrics.latency.RollingLatency;
+import net.uncontended.precipice.metrics.latency.WritableLatency;
+import net.uncontended.precipice.result.TimeoutableResult;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures the hedged mode of {@link ThreadPoolPattern}. A hedge is sent once the first attempt
+ * has been outstanding for longer than the configured percentile of the successful latencies
+ * recorded by the service it was sent to. The delay is bounded by the min and max delay. If the
+ * service does not record latency or has not recorded any yet, the max delay is used.
+ * <p/>
+ * Hedges are limited by a token budget. Every request deposits {@code budgetRatio} tokens, up to
+ * {@code maxBudget} tokens, and every hedge withdraws one token. Over time, no more than
+ * {@code budgetRatio} of requests are hedged.
+ */
+public class HedgePolicy {
+
+    private static final long SCALE = 1000;
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final long depositPerRequest;
+    private final long maxTokens;
+    private final AtomicLong tokens;
+
+    public HedgePolicy(double percentile, long minDelayMillis, long maxDelayMillis, double budgetRatio,
+                       long maxBudget) {
+        if (percentile <= 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be in (0.0, 100.0]. Found: " + percentile);
+        } else if (minDelayMillis < 0 || maxDelayMillis < minDelayMillis) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= min <= max. Found: " + minDelayMillis
+                    + ", " + maxDelayMillis);
+        } else if (budgetRatio < 0.0 || budgetRatio > 1.0) {
+            throw new IllegalArgumentException("Budget ratio must be in [0.0, 1.0]. Found: " + budgetRatio);
+        } else if (maxBudget < 1) {
+            throw new IllegalArgumentException("Max budget must be at least 1. Found: " + maxBudget);
+        }
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.depositPerRequest = (long) (budgetRatio * SCALE);
+        this.maxTokens = maxBudget * SCALE;
+        this.tokens = new AtomicLong(maxTokens);
+    }
+
+    public long hedgeDelayMillis(GuardRail<TimeoutableResult, ?> guardRail, long nanoTime) {
+        PartitionedLatency<TimeoutableResult> latency = latencyView(guardRail.getResultLatency(), nanoTime);
+        if (latency == null) {
+            return maxDelayMillis;
+        }
+        long nanos = latency.getValueAtPercentile(TimeoutableResult.SUCCESS, percentile);
+        if (nanos <= 0) {
+            return maxDelayMillis;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        return Math.min(Math.max(millis, minDelayMillis), maxDelayMillis);
+    }
+
+    public void recordRequest() {
+        if (depositPerRequest == 0) {
+            return;
+        }
+        for (; ; ) {
+            long current = tokens.get();
+            if (current >= maxTokens) {
+                return;
+            }
+            long next = Math.min(current + depositPerRequest, maxTokens);
+            if (tokens.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    public boolean tryAcquireHedge() {
+        for (; ; ) {
+            long current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    public void refundHedge() {
+        for (; ; ) {
+            long current = tokens.get();
+            long next = Math.min(current + SCALE, maxTokens);
+            if (tokens.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    public long availableHedges() {
+        return tokens.get() / SCALE;
+    }
+
+    private static PartitionedLatency<TimeoutableResult> latencyView(WritableLatency<TimeoutableResult> latency,
+                                                                     long nanoTime) {
+        if (latency instanceof PartitionedLatency) {
+            return (PartitionedLatency<TimeoutableResult>) latency;
+        } else if (latency instanceof RollingLatency) {
+            return ((RollingLatency<TimeoutableResult>) latency).current(nanoTime);
+        } else if (latency instanceof LatencyRecorder) {
+            return ((LatencyRecorder<TimeoutableResult>) latency).activeInterval();
+        }
+        return null;
+    }
+}
@@ -18,6 +18,8 @@ package net.uncontended.precipice.threadpool;
 
 import net.uncontended.precipice.GuardRail;
 import net.uncontended.precipice.Precipice;
+import net.uncontended.precipice.PrecipiceFunction;
+import net.uncontended.precipice.ResultView;
 import net.uncontended.precipice.concurrent.PrecipiceFuture;
 import net.uncontended.precipice.concurrent.PrecipicePromise;
 import net.uncontended.precipice.factories.Asynchronous;
@@ -29,10 +31,13 @@ import net.uncontended.precipice.rejected.RejectedException;
 import net.uncontended.precipice.result.TimeoutableResult;
 import net.uncontended.precipice.threadpool.utils.TaskFactory;
 import net.uncontended.precipice.timeout.DelayQueueTimeoutService;
+import net.uncontended.precipice.timeout.Timeout;
+import net.uncontended.precipice.timeout.TimeoutService;
 
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ThreadPoolPattern<C> implements Precipice<TimeoutableResult, PatternRejected> {
 
@@ -63,9 +68,34 @@ public class ThreadPoolPattern<C> implements Precipice<TimeoutableResult, Patter
 
     public <T> PrecipiceFuture<TimeoutableResult, T> submit(final PatternCallable<T, C> action, long millisTimeout) {
         long nanoTime = acquirePermit();
+        return submit(action, millisTimeout, pattern.getPrecipices(1L, nanoTime), nanoTime);
+    }
 
-        Sequence<ThreadPoolService<?>> services = pattern.getPrecipices(1L, nanoTime);
+    /**
+     * Submits the action to the services the pattern's strategy maps the key to. The pattern must
+     * use a {@link net.uncontended.precipice.pattern.KeyedPatternStrategy}. The services are
+     * ordered by the map's key set, so a {@link net.uncontended.precipice.pattern.ConsistentHashRing}
+     * should be created from stable node ids, such as with
+     * {@link net.uncontended.precipice.pattern.ConsistentHashRing#fromGuardRailNames(java.util.List, int)}, for
+     * keys to stay with the same service across restarts.
+     *
+     * @param key           the key of the request
+     * @param action        the action to submit
+     * @param millisTimeout the timeout of the request
+     * @param <T>           the type of the result
+     * @return a future representing the result
+     */
+    public <T> PrecipiceFuture<TimeoutableResult, T> submit(Object key, PatternCallable<T, C> action,
+                                                           long millisTimeout) {
+        if (!pattern.supportsKeys()) {
+            throw new IllegalStateException("Strategy does not support keys.");
+        }
+        long nanoTime = acquirePermit();
+        return submit(action, millisTimeout, pattern.getPrecipices(key, 1L, nanoTime), nanoTime);
+    }
 
+    private <T> PrecipiceFuture<TimeoutableResult, T> submit(PatternCallable<T, C> action, long millisTimeout,
+                                                            Sequence<ThreadPoolService<?>> services, long nanoTime) {
         if (services.isEmpty()) {
             return handleAllReject(nanoTime);
         }
@@ -73,20 +103,63 @@ public class ThreadPoolPattern<C> implements Precipice<TimeoutableResult, Patter
         PrecipicePromise<TimeoutableResult, T> promise = Asynchronous.getPromise(guardRail, 1L, nanoTime);
         long adjustedTimeout = DelayQueueTimeoutService.adjustTimeout(millisTimeout);
         for (ThreadPoolService<?> service : services) {
-            PrecipicePromise<TimeoutableResult, T> internal = Asynchronous.getPromise(service.guardRail(), 1L, nanoTime, promise);
+            execute(service, action, promise, adjustedTimeout, nanoTime);
+        }
+        return promise.future();
+    }
 
-            final C context = serviceToContext.get(service);
-            ExecutorService executor = service.getExecutor();
-            DelayQueueTimeoutService timeoutService = service.getTimeoutService();
+    /**
+     * Submits the action to a single service. If the action has not completed once the delay
+     * determined by the {@link HedgePolicy} has passed, and the policy's budget allows it, a second
+     * attempt is submitted to a different service. The first attempt to complete completes the
+     * returned future and the other attempt is cancelled.
+     *
+     * @param action        the action to submit
+     * @param millisTimeout the timeout of the request
+     * @param policy        the policy deciding when and how often to hedge
+     * @param <T>           the type of the result
+     * @return a future representing the result
+     */
+    public <T> PrecipiceFuture<TimeoutableResult, T> submitHedged(PatternCallable<T, C> action, long millisTimeout,
+                                                                   HedgePolicy policy) {
+        long nanoTime = acquirePermit();
+
+        ThreadPoolService<?> primary = pattern.getPrecipice(1L, nanoTime, null);
+        if (primary == null) {
+            return handleAllReject(nanoTime);
+        }
 
-            Callable<T> callable = new CallableWithContext<>(action, context);
-            CancellableTask<TimeoutableResult, T> task = TaskFactory.createTask(callable, internal);
-            executor.execute(task);
-            timeoutService.scheduleTimeout(new ThreadPoolTimeout<>(task), adjustedTimeout, nanoTime);
+        policy.recordRequest();
+        PrecipicePromise<TimeoutableResult, T> promise = Asynchronous.getPromise(guardRail, 1L, nanoTime);
+        long adjustedTimeout = DelayQueueTimeoutService.adjustTimeout(millisTimeout);
+        CancellableTask<TimeoutableResult, T> task = execute(primary, action, promise, adjustedTimeout, nanoTime);
+
+        Hedge<T> hedge = new Hedge<>(action, promise, policy, primary, task, adjustedTimeout);
+        promise.future().onComplete(hedge);
+        long delay = policy.hedgeDelayMillis(primary.guardRail(), nanoTime);
+        if (delay < adjustedTimeout) {
+            hedge.delay = delay;
+            primary.getTimeoutService().scheduleTimeout(hedge, delay, nanoTime);
         }
         return promise.future();
     }
 
+    private <T> CancellableTask<TimeoutableResult, T> execute(ThreadPoolService<?> service, PatternCallable<T, C> action,
+                                                              PrecipicePromise<TimeoutableResult, T> promise,
+                                                              long timeoutMillis, long nanoTime) {
+        PrecipicePromise<TimeoutableResult, T> internal = Asynchronous.getPromise(service.guardRail(), 1L, nanoTime, promise);
+
+        final C context = serviceToContext.get(service);
+        ExecutorService executor = service.getExecutor();
+        TimeoutService timeoutService = service.getTimeoutService();
+
+        Callable<T> callable = new CallableWithContext<>(action, context);
+        CancellableTask<TimeoutableResult, T> task = TaskFactory.createTask(callable, internal);
+        executor.execute(task);
+        timeoutService.scheduleTimeout(new ThreadPoolTimeout<>(task), timeoutMillis, nanoTime);
+        return task;
+    }
+
     private <T> PrecipiceFuture<TimeoutableResult, T> handleAllReject(long nanoTime) {
         guardRail.releasePermitsWithoutResult(1L, nanoTime);
         rejectedCounts.write(PatternRejected.ALL_REJECTED, 1L, nanoTime);
@@ -102,6 +175,77 @@ public class ThreadPoolPattern<C> implements Precipice<TimeoutableResult, Patter
         return nanoTime;
     }
 
+    private class Hedge<T> implements Timeout, PrecipiceFunction<TimeoutableResult,
+            ResultView<TimeoutableResult, T>> {
+
+        private final PatternCallable<T, C> action;
+        private final PrecipicePromise<TimeoutableResult, T> promise;
+        private final HedgePolicy policy;
+        private final ThreadPoolService<?> primary;
+        private final CancellableTask<TimeoutableResult, T> primaryTask;
+        private final long timeoutMillis;
+        private long delay;
+        private volatile ThreadPoolService<?> backup;
+        private volatile CancellableTask<TimeoutableResult, T> backupTask;
+
+        private Hedge(PatternCallable<T, C> action, PrecipicePromise<TimeoutableResult, T> promise, HedgePolicy policy,
+                      ThreadPoolService<?> primary, CancellableTask<TimeoutableResult, T> primaryTask,
+                      long timeoutMillis) {
+            this.action = action;
+            this.promise = promise;
+            this.policy = policy;
+            this.primary = primary;
+            this.primaryTask = primaryTask;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void timeout() {
+            if (promise.future().isDone() || !policy.tryAcquireHedge()) {
+                return;
+            }
+
+            long nanoTime = guardRail.getClock().nanoTime();
+            ThreadPoolService<?> service = pattern.getPrecipice(1L, nanoTime, primary);
+            if (service == null) {
+                policy.refundHedge();
+                return;
+            }
+
+            CancellableTask<TimeoutableResult, T> task;
+            try {
+                task = execute(service, action, promise, timeoutMillis - delay, nanoTime);
+            } catch (RejectedExecutionException e) {
+                // This runs on the timeout thread, so there is no caller to throw the rejection to.
+                // The primary attempt is still running and will complete the promise.
+                service.guardRail().releasePermitsWithoutResult(1L, nanoTime);
+                policy.refundHedge();
+                return;
+            }
+            backup = service;
+            backupTask = task;
+            if (promise.future().isDone()) {
+                cancelLoser(service, backupTask);
+            }
+        }
+
+        @Override
+        public void apply(TimeoutableResult result, ResultView<TimeoutableResult, T> view) {
+            cancelLoser(primary, primaryTask);
+            CancellableTask<TimeoutableResult, T> backupTask = this.backupTask;
+            if (backupTask != null) {
+                cancelLoser(backup, backupTask);
+            }
+        }
+
+        private void cancelLoser(ThreadPoolService<?> service, CancellableTask<TimeoutableResult, T> task) {
+            // The loser's promise is never completed, so its permit must be released here.
+            if (task.cancel(null, null)) {
+                service.guardRail().releasePermitsWithoutResult(1L, guardRail.getClock().nanoTime());
+            }
+        }
+    }
+
     public void shutdown() {
         for (ThreadPoolService service : serviceToContext.keySet()) {
             service.shutdown();
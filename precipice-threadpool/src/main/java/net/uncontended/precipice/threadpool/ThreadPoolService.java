@@ -19,30 +19,60 @@ package net.uncontended.precipice.threadpool;
 
 import net.uncontended.precipice.GuardRail;
 import net.uncontended.precipice.Precipice;
+import net.uncontended.precipice.PrecipiceFunction;
+import net.uncontended.precipice.ResultView;
+import net.uncontended.precipice.concurrent.Eventual;
 import net.uncontended.precipice.concurrent.PrecipiceFuture;
 import net.uncontended.precipice.concurrent.PrecipicePromise;
 import net.uncontended.precipice.factories.Asynchronous;
 import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.retry.RetryPolicy;
 import net.uncontended.precipice.threadpool.utils.PrecipiceExecutors;
 import net.uncontended.precipice.threadpool.utils.TaskFactory;
 import net.uncontended.precipice.timeout.DelayQueueTimeoutService;
+import net.uncontended.precipice.timeout.Timeout;
+import net.uncontended.precipice.timeout.TimeoutService;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 public class ThreadPoolService<Rejected extends Enum<Rejected>> implements Precipice<TimeoutableResult, Rejected> {
     private final ExecutorService executorService;
-    private final DelayQueueTimeoutService timeoutService;
+    private final TimeoutService timeoutService;
     private final GuardRail<TimeoutableResult, Rejected> guardRail;
 
     public ThreadPoolService(int poolSize, int queueSize, GuardRail<TimeoutableResult, Rejected> guardRail) {
         this(PrecipiceExecutors.threadPoolExecutor(guardRail.getName(), poolSize, queueSize), guardRail);
     }
 
+    /**
+     * Creates a service backed by a work-stealing pool. Each worker has its own deque, so
+     * submissions and takes do not contend on a single queue lock. The pool does not reject
+     * tasks. The guard rail should have a concurrency back pressure (such as a
+     * {@link net.uncontended.precipice.semaphore.LongSemaphore}) to bound the number of
+     * outstanding tasks.
+     *
+     * @param parallelism the number of worker threads
+     * @param guardRail   the guard rail
+     * @param <Rejected>  the rejected reason type
+     * @return the service
+     */
+    public static <Rejected extends Enum<Rejected>> ThreadPoolService<Rejected> workStealing(
+            int parallelism, GuardRail<TimeoutableResult, Rejected> guardRail) {
+        return new ThreadPoolService<>(PrecipiceExecutors.workStealingExecutor(guardRail.getName(), parallelism),
+                guardRail);
+    }
+
     public ThreadPoolService(ExecutorService executorService, GuardRail<TimeoutableResult, Rejected> guardRail) {
+        this(executorService, guardRail, DelayQueueTimeoutService.DEFAULT_TIMEOUT_SERVICE);
+    }
+
+    public ThreadPoolService(ExecutorService executorService, GuardRail<TimeoutableResult, Rejected> guardRail,
+                             TimeoutService timeoutService) {
         this.guardRail = guardRail;
         this.executorService = executorService;
-        timeoutService = DelayQueueTimeoutService.DEFAULT_TIMEOUT_SERVICE;
+        this.timeoutService = timeoutService;
     }
 
     @Override
@@ -62,6 +92,27 @@ public class ThreadPoolService<Rejected extends Enum<Rejected>> implements Preci
         return promise.future();
     }
 
+    /**
+     * Submits the callable, retrying failures according to the policy. Each attempt acquires its
+     * own permit and has its own timeout. Backoff is scheduled on the {@link TimeoutService}, so
+     * no thread waits between attempts. If a retry is denied by the budget or rejected by the
+     * guard rail, the future is completed with the result of the last attempt.
+     *
+     * @param callable      the callable to submit
+     * @param millisTimeout the timeout of each attempt
+     * @param policy        the retry policy
+     * @param <T>           the type of the result
+     * @return a future representing the result of the last attempt
+     */
+    public <T> PrecipiceFuture<TimeoutableResult, T> submit(Callable<T> callable, long millisTimeout,
+                                                           RetryPolicy<Rejected> policy) {
+        PrecipicePromise<TimeoutableResult, T> attempt = Asynchronous.acquirePermitsAndPromise(guardRail, 1L);
+        Eventual<TimeoutableResult, T> promise = new Eventual<>();
+        Retry<T> retry = new Retry<>(callable, millisTimeout, policy, promise);
+        retry.execute(attempt);
+        return promise;
+    }
+
     public <T> void complete(Callable<T> callable, PrecipicePromise<TimeoutableResult, T> promise) {
         internalComplete(callable, promise);
     }
@@ -84,11 +135,75 @@ public class ThreadPoolService<Rejected extends Enum<Rejected>> implements Preci
         timeoutService.scheduleTimeout(timeoutTask, adjustedTimeout, startNanos);
     }
 
+    private class Retry<T> implements Timeout, PrecipiceFunction<TimeoutableResult, ResultView<TimeoutableResult, T>> {
+
+        private final Callable<T> callable;
+        private final long millisTimeout;
+        private final RetryPolicy<Rejected> policy;
+        private final Eventual<TimeoutableResult, T> promise;
+        private int attempt = 0;
+        private TimeoutableResult lastResult;
+        private Throwable lastError;
+
+        private Retry(Callable<T> callable, long millisTimeout, RetryPolicy<Rejected> policy,
+                      Eventual<TimeoutableResult, T> promise) {
+            this.callable = callable;
+            this.millisTimeout = millisTimeout;
+            this.policy = policy;
+            this.promise = promise;
+        }
+
+        private void execute(PrecipicePromise<TimeoutableResult, T> attemptPromise) {
+            ++attempt;
+            attemptPromise.future().onComplete(this);
+            internalComplete(callable, attemptPromise, millisTimeout);
+        }
+
+        @Override
+        public void apply(TimeoutableResult result, ResultView<TimeoutableResult, T> view) {
+            if (!result.isFailure()) {
+                promise.complete(result, view.getValue());
+                return;
+            }
+
+            lastResult = result;
+            lastError = view.getError();
+            if (attempt < policy.maxAttempts()) {
+                long nanoTime = guardRail.getClock().nanoTime();
+                Rejected rejected = policy.budget().acquireRetry(nanoTime);
+                if (rejected == null) {
+                    timeoutService.scheduleTimeout(this, policy.backoffMillis(attempt), nanoTime);
+                    return;
+                }
+                guardRail.getRejectedCounts().write(rejected, 1L, nanoTime);
+            }
+            promise.completeExceptionally(lastResult, lastError);
+        }
+
+        @Override
+        public void timeout() {
+            long nanoTime = guardRail.getClock().nanoTime();
+            if (guardRail.acquirePermits(1L, nanoTime) != null) {
+                policy.budget().refundRetry(nanoTime);
+                promise.completeExceptionally(lastResult, lastError);
+                return;
+            }
+            try {
+                execute(Asynchronous.getPromise(guardRail, 1L, nanoTime));
+            } catch (RejectedExecutionException e) {
+                // This runs on the timeout thread, so there is no caller to throw the rejection to.
+                guardRail.releasePermitsWithoutResult(1L, nanoTime);
+                policy.budget().refundRetry(nanoTime);
+                promise.completeExceptionally(lastResult, lastError);
+            }
+        }
+    }
+
     public ExecutorService getExecutor() {
         return executorService;
     }
 
-    public DelayQueueTimeoutService getTimeoutService() {
+    public TimeoutService getTimeoutService() {
         return timeoutService;
     }
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014 Timothy Brooks
+ * Copyright 2016 Timothy Brooks
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,115 +17,270 @@
 
 package net.uncontended.precipice.threadpool.experimental;
 
-import java.util.Comparator;
-import java.util.NavigableSet;
-import java.util.TreeSet;
-import java.util.concurrent.Executor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 
-public class ActionThreadPool implements Executor {
+/**
+ * An executor where every thread owns its own queue. A task is placed on the thread with the
+ * fewest scheduled tasks out of two randomly chosen threads. Scheduled counts include both queued
+ * and running tasks, and are maintained atomically so that execute can be called from many
+ * threads without locking.
+ * <p/>
+ * Each thread can have at most queueCapacity tasks scheduled. If neither candidate has room,
+ * the task is rejected.
+ * <p/>
+ * The pool implements {@link java.util.concurrent.ExecutorService} so that it can back a
+ * {@link net.uncontended.precipice.threadpool.ThreadPoolService}.
+ */
+public class ActionThreadPool extends AbstractExecutorService {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10;
 
-    private final NavigableSet<ThreadManager> pool;
-    private final ThreadLocalRandom random = ThreadLocalRandom.current();
+    private final ThreadManager[] pool;
+    private volatile boolean isShutdown = false;
+    private volatile boolean isStopped = false;
 
     public ActionThreadPool(String actionName, int threadCount) {
+        this(actionName, threadCount, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public ActionThreadPool(String actionName, int threadCount, int queueCapacity) {
+        this(actionName, threadCount, queueCapacity, null);
+    }
+
+    /**
+     * Creates a pool whose threads report tasks that throw to the handler. A throwing task does
+     * not stop its thread, which goes on to run the rest of its tasks. If the handler is null,
+     * failures are reported to the threads' default handler.
+     *
+     * @param actionName    the prefix of the thread names
+     * @param threadCount   the number of threads
+     * @param queueCapacity the maximum number of tasks scheduled on each thread
+     * @param handler       the handler for tasks that throw
+     */
+    public ActionThreadPool(String actionName, int threadCount, int queueCapacity,
+                            Thread.UncaughtExceptionHandler handler) {
         if (threadCount < 1) {
             throw new IllegalArgumentException("Cannot have fewer than 1 thread");
         }
-        pool = new TreeSet<>(new Comparator<ThreadManager>() {
-            @Override
-            public int compare(ThreadManager o1, ThreadManager o2) {
-                int scheduledCount1 = o1.getScheduledCount();
-                int scheduledCount2 = o2.getScheduledCount();
-                if (scheduledCount1 > scheduledCount2) {
-                    return 1;
-                } else if (scheduledCount2 > scheduledCount1) {
-                    return -1;
-                } else if (random.nextBoolean()) {
-                    return 1;
-                } else {
-                    return -1;
-                }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0. Found: " + queueCapacity);
+        }
+        pool = new ThreadManager[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            pool[i] = new ThreadManager(actionName + "-" + i, queueCapacity);
+            if (handler != null) {
+                pool[i].thread.setUncaughtExceptionHandler(handler);
+            }
+        }
+        for (ThreadManager manager : pool) {
+            manager.thread.start();
+        }
+    }
 
+    @Override
+    public void execute(Runnable action) {
+        if (action == null) {
+            throw new NullPointerException("Cannot execute null action");
+        }
+        if (isShutdown) {
+            throw new RejectedExecutionException("Pool has been shutdown.");
+        }
+
+        ThreadManager first;
+        ThreadManager second;
+        if (pool.length == 1) {
+            first = pool[0];
+            second = first;
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int i = random.nextInt(pool.length);
+            int j = random.nextInt(pool.length - 1);
+            if (j >= i) {
+                ++j;
+            }
+            first = pool[i];
+            second = pool[j];
+            if (second.getScheduledCount() < first.getScheduledCount()) {
+                ThreadManager temp = first;
+                first = second;
+                second = temp;
             }
-        });
+        }
 
-        for (int i = 0; i < threadCount; ++i) {
-            pool.add(new ThreadManager(actionName + "-" + i));
+        ThreadManager manager;
+        if (first.reserve()) {
+            manager = first;
+        } else if (second != first && second.reserve()) {
+            manager = second;
+        } else {
+            throw new RejectedExecutionException();
         }
 
+        manager.submit(action);
+        if (isShutdown && manager.remove(action)) {
+            throw new RejectedExecutionException("Pool has been shutdown.");
+        }
     }
 
     @Override
-    public void execute(Runnable action) {
-        ThreadManager nextThread = pool.pollFirst();
-        boolean submitted = nextThread.submit(action);
-        pool.add(nextThread);
-        if (!submitted) {
-            throw new RejectedExecutionException();
+    public void shutdown() {
+        isShutdown = true;
+        for (ThreadManager manager : pool) {
+            LockSupport.unpark(manager.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        isShutdown = true;
+        isStopped = true;
+        List<Runnable> notExecuted = new ArrayList<>();
+        for (ThreadManager manager : pool) {
+            manager.thread.interrupt();
+            LockSupport.unpark(manager.thread);
+            manager.drainTo(notExecuted);
         }
+        return notExecuted;
     }
 
-    public void signalTaskComplete(ThreadManager threadManager) {
-        threadManager.decrementScheduledCount();
-        pool.remove(threadManager);
-        pool.add(threadManager);
+    @Override
+    public boolean isShutdown() {
+        return isShutdown;
     }
 
-    public void shutdown() {
+    @Override
+    public boolean isTerminated() {
+        if (!isShutdown) {
+            return false;
+        }
         for (ThreadManager manager : pool) {
-            manager.shutdown();
+            if (manager.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadManager manager : pool) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return isTerminated();
+            }
+            manager.thread.join(remainingMillis);
         }
+        return isTerminated();
     }
 
-    private static class ThreadManager {
-        private final ExchangingQueue<Runnable> queue = new ExchangingQueue<>(10);
+    public int getScheduledCount(int threadIndex) {
+        return pool[threadIndex].getScheduledCount();
+    }
+
+    private static void signalTaskComplete(ThreadManager threadManager) {
+        threadManager.scheduledCount.decrementAndGet();
+    }
+
+    private class ThreadManager {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger scheduledCount = new AtomicInteger(0);
+        private final int capacity;
         private final Thread thread;
-        private int scheduledCount = 0;
+        private volatile boolean isWaiting = false;
 
-        private ThreadManager(String threadName) {
+        private ThreadManager(String threadName, int capacity) {
+            this.capacity = capacity;
             thread = new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    for (; ; ) {
-                        Runnable runnable;
-                        try {
-                            runnable = queue.blockingPoll();
-                        } catch (InterruptedException e) {
-                            return;
-                        }
-                        runnable.run();
-                        // Need to explore this strategy more.
-                        if (thread.isInterrupted()) {
+                    runLoop();
+                }
+            }, threadName);
+        }
+
+        private void runLoop() {
+            while (!isStopped) {
+                Runnable runnable = queue.poll();
+                if (runnable == null) {
+                    if (isShutdown) {
+                        // A task may have been added between the poll and reading the flag.
+                        runnable = queue.poll();
+                        if (runnable == null) {
                             return;
                         }
+                    } else {
+                        park();
+                        continue;
                     }
                 }
-            }, threadName);
-            thread.start();
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                } finally {
+                    signalTaskComplete(this);
+                    if (!isStopped) {
+                        Thread.interrupted();
+                    }
+                }
+            }
         }
 
-        private boolean submit(Runnable task) {
-            boolean offered = queue.offer(task);
-            if (offered) {
-                ++scheduledCount;
+        private void park() {
+            isWaiting = true;
+            if (queue.isEmpty() && !isShutdown) {
+                LockSupport.park(this);
             }
-            return offered;
+            isWaiting = false;
         }
 
-        private void decrementScheduledCount() {
-            --scheduledCount;
+        private boolean reserve() {
+            for (; ; ) {
+                int count = scheduledCount.get();
+                if (count >= capacity) {
+                    return false;
+                }
+                if (scheduledCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
         }
 
-        private int getScheduledCount() {
-            return scheduledCount;
+        private void submit(Runnable task) {
+            queue.offer(task);
+            if (isWaiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private boolean remove(Runnable task) {
+            if (queue.remove(task)) {
+                signalTaskComplete(this);
+                return true;
+            }
+            return false;
         }
 
-        private void shutdown() {
-            thread.interrupt();
-            LockSupport.unpark(thread);
+        private void drainTo(List<Runnable> tasks) {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                signalTaskComplete(this);
+                tasks.add(task);
+            }
+        }
+
+        private int getScheduledCount() {
+            return scheduledCount.get();
         }
     }
 }
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.threadpool.utils;
+
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.threadpool.CancellableTask;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.time.SystemTime;
+import net.uncontended.precipice.timeout.PrecipiceTimeoutException;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded executor queue that manages its standing delay in the style of CoDel (controlled
+ * delay). Each task's enqueue time is tracked. The sojourn time of the oldest task is sampled
+ * on every dequeue. If the smallest sample over an interval exceeds the target, the queue never
+ * drained below the target during that interval, and it is considered overloaded until an
+ * interval passes where it did.
+ * <p/>
+ * While overloaded, tasks that have waited longer than the target are dropped instead of run,
+ * and the remaining tasks are served newest first. The newest tasks have the most of their
+ * timeout left, so serving them first keeps tail latency bounded. Every dropped task is failed:
+ * <ul>
+ * <li>{@link CancellableTask}s are completed with {@link TimeoutableResult#TIMEOUT} and a
+ * {@link PrecipiceTimeoutException}, which releases their permits.</li>
+ * <li>Other {@link Future}s, such as those created by {@link java.util.concurrent.ExecutorService#submit},
+ * are cancelled.</li>
+ * <li>Other runnables are passed to the {@link RejectedExecutionHandler} set with
+ * {@link #setRejectedExecutionHandler(ThreadPoolExecutor, RejectedExecutionHandler)}. If no handler
+ * is set they are discarded.</li>
+ * </ul>
+ * This queue assumes any {@link CancellableTask} it holds reports {@link TimeoutableResult}, as the
+ * tasks created by ThreadPoolService do.
+ */
+public class CoDelQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final Runnable[] tasks;
+    private final long[] enqueueTimes;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int head = 0;
+    private int count = 0;
+    private long intervalStart;
+    private long minSojourn = Long.MAX_VALUE;
+    private long droppedCount = 0;
+    private volatile boolean isOverloaded = false;
+    private volatile ThreadPoolExecutor executor;
+    private volatile RejectedExecutionHandler dropHandler;
+
+    public CoDelQueue(int capacity, long target, long interval, TimeUnit unit) {
+        this(capacity, target, interval, unit, SystemTime.getInstance());
+    }
+
+    public CoDelQueue(int capacity, long target, long interval, TimeUnit unit, Clock clock) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be greater than 0. Found: " + capacity);
+        }
+        if (target <= 0 || interval < target) {
+            throw new IllegalArgumentException("Target must be positive and no greater than the interval.");
+        }
+        this.tasks = new Runnable[capacity];
+        this.enqueueTimes = new long[capacity];
+        this.targetNanos = unit.toNanos(target);
+        this.intervalNanos = unit.toNanos(interval);
+        this.clock = clock;
+        this.intervalStart = clock.nanoTime();
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        Objects.requireNonNull(task);
+        lock.lock();
+        try {
+            if (count == tasks.length) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == tasks.length) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        Objects.requireNonNull(task);
+        lock.lockInterruptibly();
+        try {
+            while (count == tasks.length) {
+                notFull.await();
+            }
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        for (; ; ) {
+            List<Runnable> dropped;
+            Runnable task;
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    notEmpty.await();
+                }
+                dropped = dropExpired();
+                task = count == 0 ? null : dequeue();
+            } finally {
+                lock.unlock();
+            }
+            fail(dropped);
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        for (; ; ) {
+            List<Runnable> dropped;
+            Runnable task;
+            lock.lockInterruptibly();
+            try {
+                while (count == 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                dropped = dropExpired();
+                task = count == 0 ? null : dequeue();
+            } finally {
+                lock.unlock();
+            }
+            fail(dropped);
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        for (; ; ) {
+            List<Runnable> dropped;
+            Runnable task;
+            lock.lock();
+            try {
+                if (count == 0) {
+                    return null;
+                }
+                dropped = dropExpired();
+                task = count == 0 ? null : dequeue();
+            } finally {
+                lock.unlock();
+            }
+            fail(dropped);
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            return isOverloaded ? tasks[index(count - 1)] : tasks[head];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return tasks.length - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                if (o.equals(tasks[index(i)])) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            for (int i = 0; i < n; ++i) {
+                c.add(tasks[head]);
+                removeAt(0);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                snapshot.add(tasks[index(i)]);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                CoDelQueue.this.remove(last);
+            }
+        };
+    }
+
+    public boolean isOverloaded() {
+        return isOverloaded;
+    }
+
+    /**
+     * Sets the handler that dropped runnables which are not {@link Future}s are passed to, along with
+     * the executor this queue belongs to.
+     *
+     * @param executor the executor this queue backs
+     * @param handler  the handler for dropped runnables
+     */
+    public void setRejectedExecutionHandler(ThreadPoolExecutor executor, RejectedExecutionHandler handler) {
+        this.executor = executor;
+        dropHandler = handler;
+    }
+
+    public long droppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Runnable task) {
+        int tail = index(count);
+        tasks[tail] = task;
+        enqueueTimes[tail] = clock.nanoTime();
+        ++count;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        int i = isOverloaded ? count - 1 : 0;
+        Runnable task = tasks[index(i)];
+        removeAt(i);
+        return task;
+    }
+
+    private List<Runnable> dropExpired() {
+        long now = clock.nanoTime();
+        long headSojourn = now - enqueueTimes[head];
+        minSojourn = Math.min(minSojourn, headSojourn);
+        if (now - intervalStart >= intervalNanos) {
+            isOverloaded = minSojourn > targetNanos;
+            minSojourn = Long.MAX_VALUE;
+            intervalStart = now;
+        }
+
+        if (!isOverloaded) {
+            return Collections.emptyList();
+        }
+
+        List<Runnable> dropped = null;
+        while (count > 0 && now - enqueueTimes[head] > targetNanos) {
+            if (dropped == null) {
+                dropped = new ArrayList<>();
+            }
+            dropped.add(tasks[head]);
+            removeAt(0);
+            ++droppedCount;
+        }
+        return dropped == null ? Collections.<Runnable>emptyList() : dropped;
+    }
+
+    private void removeAt(int i) {
+        if (i == 0) {
+            tasks[head] = null;
+            head = index(1);
+        } else {
+            for (int j = i; j < count - 1; ++j) {
+                tasks[index(j)] = tasks[index(j + 1)];
+                enqueueTimes[index(j)] = enqueueTimes[index(j + 1)];
+            }
+            tasks[index(count - 1)] = null;
+        }
+        --count;
+        notFull.signal();
+    }
+
+    private int index(int offset) {
+        int i = head + offset;
+        return i >= tasks.length ? i - tasks.length : i;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fail(List<Runnable> dropped) {
+        for (Runnable task : dropped) {
+            if (task instanceof CancellableTask) {
+                ((CancellableTask<TimeoutableResult, ?>) task).cancel(TimeoutableResult.TIMEOUT,
+                        new PrecipiceTimeoutException("Task exceeded queue delay target."));
+            } else if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            } else {
+                RejectedExecutionHandler dropHandler = this.dropHandler;
+                if (dropHandler != null) {
+                    try {
+                        dropHandler.rejectedExecution(task, executor);
+                    } catch (RuntimeException e) {
+                        // The dropping thread is a worker taking its next task, not the submitter.
+                        Thread thread = Thread.currentThread();
+                        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -19,8 +19,12 @@ package net.uncontended.precipice.threadpool.utils;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class PrecipiceExecutors {
 
@@ -31,4 +35,49 @@ public final class PrecipiceExecutors {
         return new ThreadPoolExecutor(poolSize, poolSize, Long.MAX_VALUE, TimeUnit.DAYS,
                 new ArrayBlockingQueue<Runnable>((int) queueSize), new ServiceThreadFactory(name));
     }
+
+    public static ExecutorService coDelThreadPoolExecutor(String name, int poolSize, int queueSize, long target,
+                                                          long interval, TimeUnit unit) {
+        return new ThreadPoolExecutor(poolSize, poolSize, Long.MAX_VALUE, TimeUnit.DAYS,
+                new CoDelQueue(queueSize, target, interval, unit), new ServiceThreadFactory(name));
+    }
+
+    /**
+     * Creates a CoDel executor where the handler is used both for tasks rejected because the queue
+     * is full and for runnables dropped by the queue that are not futures.
+     */
+    public static ExecutorService coDelThreadPoolExecutor(String name, int poolSize, int queueSize, long target,
+                                                          long interval, TimeUnit unit,
+                                                          RejectedExecutionHandler handler) {
+        CoDelQueue queue = new CoDelQueue(queueSize, target, interval, unit);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, Long.MAX_VALUE, TimeUnit.DAYS,
+                queue, new ServiceThreadFactory(name), handler);
+        queue.setRejectedExecutionHandler(executor, handler);
+        return executor;
+    }
+
+    /**
+     * Creates a work-stealing pool where each worker has its own deque. Tasks are run in FIFO order
+     * as they are never joined. The pool does not bound the number of queued tasks, so the
+     * concurrency level should be bounded by the {@link net.uncontended.precipice.GuardRail}.
+     *
+     * @param name        the prefix for worker thread names
+     * @param parallelism the number of workers
+     * @return the pool
+     */
+    public static ExecutorService workStealingExecutor(final String name, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Cannot have fewer than 1 thread");
+        }
+        final AtomicInteger count = new AtomicInteger(0);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(name + '-' + count.getAndIncrement());
+                return thread;
+            }
+        };
+        return new ForkJoinPool(parallelism, factory, null, true);
+    }
 }
@@ -20,6 +20,7 @@ package net.uncontended.precipice.threadpool;
 import net.uncontended.precipice.GuardRail;
 import net.uncontended.precipice.concurrent.PrecipiceFuture;
 import net.uncontended.precipice.metrics.counts.WritableCounts;
+import net.uncontended.precipice.metrics.latency.TotalLatency;
 import net.uncontended.precipice.pattern.Pattern;
 import net.uncontended.precipice.pattern.WritableSequence;
 import net.uncontended.precipice.rejected.RejectedException;
@@ -38,11 +39,14 @@ import org.mockito.MockitoAnnotations;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -98,6 +102,8 @@ public class ThreadPoolPatternTest {
     private ArgumentCaptor<ThreadPoolTimeout> timeout1Captor;
     @Captor
     private ArgumentCaptor<ThreadPoolTimeout> timeout2Captor;
+    @Captor
+    private ArgumentCaptor<Timeout> hedgeCaptor;
 
     private ThreadPoolPattern<Object> poolPattern;
     private long submitTimeNanos = 10L;
@@ -161,6 +167,20 @@ public class ThreadPoolPatternTest {
         assertEquals("Service1", f.getValue());
     }
 
+    @Test
+    public void keyedSubmitWithoutKeyedStrategyDoesNotAcquirePermits() throws Exception {
+        when(pattern.supportsKeys()).thenReturn(false);
+
+        try {
+            poolPattern.submit("key", action, 100L);
+            fail("Should have thrown exception.");
+        } catch (IllegalStateException e) {
+            assertEquals("Strategy does not support keys.", e.getMessage());
+        }
+        verify(guardRail, never()).acquirePermits(anyLong(), anyLong());
+        verify(pattern, never()).getPrecipices(any(), anyLong(), anyLong());
+    }
+
     @Test
     public void ifNoServiceReturnedThenAllRejected() throws Exception {
         WritableSequence<ThreadPoolService<?>> iterable = prepIterable();
@@ -184,6 +204,106 @@ public class ThreadPoolPatternTest {
         verifyZeroInteractions(service3);
     }
 
+    @Test
+    public void hedgeSubmittedToSecondServiceAndLoserCancelled() throws Exception {
+        HedgePolicy policy = new HedgePolicy(99.0, 10L, 50L, 1.0, 1L);
+        long millisTimeout = 100L;
+
+        when(guardRail.acquirePermits(1L, submitTimeNanos)).thenReturn(null);
+        when(pattern.getPrecipice(1L, submitTimeNanos, null)).thenReturn(service1);
+        when(pattern.getPrecipice(1L, submitTimeNanos, service1)).thenReturn(service2);
+
+        PrecipiceFuture<TimeoutableResult, String> f = poolPattern.submitHedged(action, millisTimeout, policy);
+
+        verify(executor1).execute(task1Captor.capture());
+        verify(timeoutService1).scheduleTimeout(any(ThreadPoolTimeout.class), eq(millisTimeout), eq(10L));
+        verify(timeoutService1).scheduleTimeout(hedgeCaptor.capture(), eq(50L), eq(10L));
+        verifyZeroInteractions(executor2);
+
+        hedgeCaptor.getValue().timeout();
+        verify(executor2).execute(task2Captor.capture());
+        verify(timeoutService2).scheduleTimeout(any(ThreadPoolTimeout.class), eq(50L), eq(10L));
+
+        task2Captor.getValue().run();
+        assertEquals(TimeoutableResult.SUCCESS, f.getResult());
+        assertEquals("Service2", f.getValue());
+        verify(guardRail1).releasePermitsWithoutResult(1L, submitTimeNanos);
+
+        task1Captor.getValue().run();
+        verify(action, never()).call(context1);
+        assertEquals("Service2", f.getValue());
+    }
+
+    @Test
+    public void hedgeRejectedByBackupExecutorReleasesPermitAndRefundsHedge() throws Exception {
+        HedgePolicy policy = new HedgePolicy(99.0, 10L, 50L, 1.0, 1L);
+
+        when(guardRail.acquirePermits(1L, submitTimeNanos)).thenReturn(null);
+        when(pattern.getPrecipice(1L, submitTimeNanos, null)).thenReturn(service1);
+        when(pattern.getPrecipice(1L, submitTimeNanos, service1)).thenReturn(service2);
+        doThrow(new RejectedExecutionException()).when(executor2).execute(any(Runnable.class));
+
+        PrecipiceFuture<TimeoutableResult, String> f = poolPattern.submitHedged(action, 100L, policy);
+
+        verify(executor1).execute(task1Captor.capture());
+        verify(timeoutService1).scheduleTimeout(hedgeCaptor.capture(), eq(50L), eq(10L));
+        hedgeCaptor.getValue().timeout();
+
+        verify(guardRail2).releasePermitsWithoutResult(1L, submitTimeNanos);
+        verifyZeroInteractions(timeoutService2);
+        assertEquals(1, policy.availableHedges());
+        assertNull(f.getResult());
+
+        task1Captor.getValue().run();
+        assertEquals("Service1", f.getValue());
+        verify(guardRail1, never()).releasePermitsWithoutResult(anyLong(), anyLong());
+    }
+
+    @Test
+    public void hedgeNotSubmittedIfFirstAttemptCompletes() throws Exception {
+        HedgePolicy policy = new HedgePolicy(99.0, 10L, 50L, 1.0, 1L);
+
+        when(guardRail.acquirePermits(1L, submitTimeNanos)).thenReturn(null);
+        when(pattern.getPrecipice(1L, submitTimeNanos, null)).thenReturn(service1);
+
+        PrecipiceFuture<TimeoutableResult, String> f = poolPattern.submitHedged(action, 100L, policy);
+
+        verify(executor1).execute(task1Captor.capture());
+        verify(timeoutService1).scheduleTimeout(hedgeCaptor.capture(), eq(50L), eq(10L));
+        task1Captor.getValue().run();
+        hedgeCaptor.getValue().timeout();
+
+        assertEquals("Service1", f.getValue());
+        verify(pattern, never()).getPrecipice(1L, submitTimeNanos, service1);
+        verify(guardRail1, never()).releasePermitsWithoutResult(anyLong(), anyLong());
+        assertEquals(1, policy.availableHedges());
+    }
+
+    @Test
+    public void hedgesLimitedByBudgetAndDelayedByLatencyPercentile() throws Exception {
+        HedgePolicy policy = new HedgePolicy(99.0, 1L, 50L, 0.0, 1L);
+        TotalLatency<TimeoutableResult> latency = new TotalLatency<>(TimeoutableResult.class);
+        for (int i = 0; i < 100; ++i) {
+            latency.write(TimeoutableResult.SUCCESS, 1L, TimeUnit.MILLISECONDS.toNanos(20), 0L);
+        }
+
+        when(guardRail.acquirePermits(1L, submitTimeNanos)).thenReturn(null);
+        when(guardRail1.getResultLatency()).thenReturn((TotalLatency) latency);
+        when(pattern.getPrecipice(1L, submitTimeNanos, null)).thenReturn(service1);
+        when(pattern.getPrecipice(1L, submitTimeNanos, service1)).thenReturn(service2);
+
+        poolPattern.submitHedged(action, 100L, policy);
+        poolPattern.submitHedged(action, 100L, policy);
+
+        verify(timeoutService1, times(2)).scheduleTimeout(hedgeCaptor.capture(), eq(20L), eq(10L));
+        for (Timeout hedge : hedgeCaptor.getAllValues()) {
+            hedge.timeout();
+        }
+
+        verify(executor2, times(1)).execute(any(CancellableTask.class));
+        assertEquals(0, policy.availableHedges());
+    }
+
     private static WritableSequence<ThreadPoolService<?>> prepIterable(ThreadPoolService... services) {
         WritableSequence<ThreadPoolService<?>> iterable = new WritableSequence<>(services.length);
 
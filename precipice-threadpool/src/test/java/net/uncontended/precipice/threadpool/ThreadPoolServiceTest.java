@@ -27,6 +27,9 @@ import net.uncontended.precipice.metrics.latency.NoOpLatency;
 import net.uncontended.precipice.rejected.Rejected;
 import net.uncontended.precipice.rejected.RejectedException;
 import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.retry.RetryBudget;
+import net.uncontended.precipice.retry.RetryPolicy;
+import net.uncontended.precipice.semaphore.LongSemaphore;
 import net.uncontended.precipice.threadpool.test_utils.TestCallable;
 import net.uncontended.precipice.threadpool.utils.PrecipiceExecutors;
 import net.uncontended.precipice.time.Clock;
@@ -42,12 +45,20 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.anyLong;
@@ -230,4 +241,166 @@ public class ThreadPoolServiceTest {
         Simulation<TimeoutableResult> simulation = new Simulation<>(guardRail);
         simulation.run(resultToCallable);
     }
+
+    @Test
+    public void failedAttemptsAreRetriedWithinBudget() throws Exception {
+        RetryBudget<Rejected> budget = new RetryBudget<>(Rejected.RATE_LIMIT_EXCEEDED, 0.0, 2, 10, TimeUnit.SECONDS);
+        TotalCounts<Rejected> rejectedCounts = new TotalCounts<>(Rejected.class);
+        GuardRail<TimeoutableResult, Rejected> guardRail = new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Retry")
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(rejectedCounts)
+                .addBackPressure(budget)
+                .build();
+        ThreadPoolService<Rejected> retryService = new ThreadPoolService<>(executorService, guardRail);
+
+        final AtomicInteger calls = new AtomicInteger(0);
+        Callable<String> failsTwice = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() <= 2) {
+                    throw new IOException();
+                }
+                return "Success";
+            }
+        };
+
+        RetryPolicy<Rejected> policy = new RetryPolicy<>(5, 1L, 10L, budget);
+        PrecipiceFuture<TimeoutableResult, String> f = retryService.submit(failsTwice, 1000L, policy);
+        assertEquals("Success", f.get());
+        assertEquals(TimeoutableResult.SUCCESS, f.getResult());
+        assertEquals(3, calls.get());
+
+        calls.set(0);
+        PrecipiceFuture<TimeoutableResult, String> f2 = retryService.submit(failsTwice, 1000L, policy);
+        f2.await();
+        assertEquals(TimeoutableResult.ERROR, f2.getResult());
+        assertTrue(f2.getError() instanceof IOException);
+        assertEquals(1, calls.get());
+        assertEquals(1, rejectedCounts.getCount(Rejected.RATE_LIMIT_EXCEEDED));
+    }
+
+    @Test
+    public void retryRejectedByExecutorReleasesPermitAndCompletesPromise() throws Exception {
+        RetryBudget<Rejected> budget = new RetryBudget<>(Rejected.RATE_LIMIT_EXCEEDED, 0.0, 1, 10, TimeUnit.SECONDS);
+        GuardRail<TimeoutableResult, Rejected> guardRail = new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Retry")
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 1))
+                .addBackPressure(budget)
+                .build();
+        ExecutorService rejectsRetries = new InlineExecutor(1);
+        ThreadPoolService<Rejected> retryService = new ThreadPoolService<>(rejectsRetries, guardRail);
+
+        final IOException exception = new IOException();
+        RetryPolicy<Rejected> policy = new RetryPolicy<>(3, 1L, 10L, budget);
+        PrecipiceFuture<TimeoutableResult, String> f = retryService.submit(TestCallable.erred(exception),
+                1000L, policy);
+
+        f.await(5, TimeUnit.SECONDS);
+        assertEquals(TimeoutableResult.ERROR, f.getResult());
+        assertSame(exception, f.getError());
+        assertEquals(1, budget.availableRetries(System.nanoTime()));
+        assertNull(guardRail.acquirePermits(1L, System.nanoTime()));
+    }
+
+    @Test
+    public void workStealingServiceBoundsConcurrencyAndInterruptsTimedOutTasks() throws Exception {
+        GuardRail<TimeoutableResult, Rejected> guardRail = new GuardRailBuilder<TimeoutableResult, Rejected>()
+                .name("Work-Stealing")
+                .resultCounts(new TotalCounts<>(TimeoutableResult.class))
+                .rejectedCounts(new TotalCounts<>(Rejected.class))
+                .addBackPressure(new LongSemaphore<>(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, 2))
+                .build();
+        ThreadPoolService<Rejected> workStealingService = ThreadPoolService.workStealing(2, guardRail);
+
+        try {
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            final CountDownLatch blockingLatch = new CountDownLatch(1);
+            Callable<String> interruptible = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    try {
+                        blockingLatch.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return "Success";
+                }
+            };
+
+            PrecipiceFuture<TimeoutableResult, String> timedOut = workStealingService.submit(interruptible, 20L);
+            PrecipiceFuture<TimeoutableResult, String> blocked = workStealingService.submit(
+                    TestCallable.blocked(blockingLatch), Long.MAX_VALUE);
+            try {
+                workStealingService.submit(TestCallable.success(), Long.MAX_VALUE);
+                fail("Should have been rejected.");
+            } catch (RejectedException e) {
+                assertEquals(Rejected.MAX_CONCURRENCY_LEVEL_EXCEEDED, e.reason);
+            }
+
+            timedOut.await();
+            assertEquals(TimeoutableResult.TIMEOUT, timedOut.getResult());
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+            blockingLatch.countDown();
+            assertEquals("Success", blocked.get());
+
+            final BlockingQueue<String> threadNames = new LinkedBlockingQueue<>();
+            PrecipiceFuture<TimeoutableResult, String> f = workStealingService.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    threadNames.add(Thread.currentThread().getName());
+                    return "Success";
+                }
+            }, Long.MAX_VALUE);
+            assertEquals("Success", f.get());
+            assertTrue(threadNames.poll().startsWith("Work-Stealing-"));
+        } finally {
+            workStealingService.shutdown();
+        }
+    }
+
+    private static class InlineExecutor extends AbstractExecutorService {
+
+        private final AtomicInteger remaining;
+
+        private InlineExecutor(int allowedTasks) {
+            remaining = new AtomicInteger(allowedTasks);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (remaining.getAndDecrement() <= 0) {
+                throw new RejectedExecutionException();
+            }
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
 }
@@ -22,8 +22,13 @@ import org.junit.Test;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ActionThreadPoolTest {
@@ -48,21 +53,31 @@ public class ActionThreadPoolTest {
     }
 
     @Test
-    public void testPoolPrioritizesFreeThreadsAndExecutes() {
+    public void testPoolPrioritizesFreeThreadsAndExecutes() throws InterruptedException {
         threadPool = new ActionThreadPool("Test Action", 2);
 
         final List<String> resultList = new CopyOnWriteArrayList<>();
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
 
         for (int i = 0; i < 20; ++i) {
             threadPool.execute(new Runnable() {
                 @Override
                 public void run() {
+                    try {
+                        blockingLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
                     resultList.add(Thread.currentThread().getName());
                 }
             });
 
         }
 
+        assertEquals(10, threadPool.getScheduledCount(0));
+        assertEquals(10, threadPool.getScheduledCount(1));
+
+        blockingLatch.countDown();
         while (resultList.size() != 20) {
         }
 
@@ -82,6 +97,120 @@ public class ActionThreadPoolTest {
 
     }
 
+    @Test
+    public void throwingTasksAreReportedAndDoNotStopTheThread() throws Exception {
+        final List<Throwable> failures = new CopyOnWriteArrayList<>();
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        threadPool = new ActionThreadPool("Test Action", 1, 10, new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                failures.add(e);
+            }
+        });
+
+        final RuntimeException exception = new RuntimeException("Boom");
+        final CountDownLatch completed = new CountDownLatch(2);
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                completed.countDown();
+            }
+        });
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw exception;
+            }
+        });
+        threadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                completed.countDown();
+            }
+        });
+        blockingLatch.countDown();
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, failures.size());
+        assertEquals(exception, failures.get(0));
+        for (int i = 0; i < 100 && threadPool.getScheduledCount(0) != 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, threadPool.getScheduledCount(0));
+    }
+
+    @Test
+    public void testTasksAreRejectedWhenAllThreadsAreFull() {
+        threadPool = new ActionThreadPool("Test Action", 2, 1);
+        final CountDownLatch blockingLatch = new CountDownLatch(1);
+        Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blockingLatch.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+
+        threadPool.execute(action);
+        threadPool.execute(action);
+        try {
+            threadPool.execute(action);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        blockingLatch.countDown();
+    }
+
+    @Test
+    public void testConcurrentExecuteRunsEveryTask() throws Exception {
+        threadPool = new ActionThreadPool("Test Action", 4, 1024);
+        int producerCount = 8;
+        final int tasksPerProducer = 500;
+        final AtomicInteger executed = new AtomicInteger(0);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; ++i) {
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < tasksPerProducer; ++j) {
+                        threadPool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                executed.incrementAndGet();
+                            }
+                        });
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(producerCount * tasksPerProducer, executed.get());
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(0, threadPool.getScheduledCount(i));
+        }
+    }
+
     @Test
     public void signallyATaskCompleteFreesUpAThread() {
         threadPool = new ActionThreadPool("Test Action", 2);
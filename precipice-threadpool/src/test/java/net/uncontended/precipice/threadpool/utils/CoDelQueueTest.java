@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Timothy Brooks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package net.uncontended.precipice.threadpool.utils;
+
+import net.uncontended.precipice.concurrent.Eventual;
+import net.uncontended.precipice.result.TimeoutableResult;
+import net.uncontended.precipice.threadpool.CancellableTask;
+import net.uncontended.precipice.time.Clock;
+import net.uncontended.precipice.timeout.PrecipiceTimeoutException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CoDelQueueTest {
+
+    private final AtomicLong nanoTime = new AtomicLong(0);
+    private final CoDelQueue queue = new CoDelQueue(10, 5, 100, TimeUnit.MILLISECONDS, new TestClock(nanoTime));
+
+    @Test
+    public void tasksAreServedInOrderWithoutOverload() throws InterruptedException {
+        Runnable first = new NoOp();
+        Runnable second = new NoOp();
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+
+        advanceMillis(50);
+        assertSame(first, queue.take());
+        assertSame(second, queue.poll(0, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll());
+        assertFalse(queue.isOverloaded());
+    }
+
+    @Test
+    public void queueIsBounded() {
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(queue.offer(new NoOp()));
+        }
+        assertFalse(queue.offer(new NoOp()));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void standingQueueDropsExpiredTasksAndServesNewestFirst() throws Exception {
+        Runnable first = new NoOp();
+        assertTrue(queue.offer(first));
+        advanceMillis(10);
+        assertSame(first, queue.poll());
+        assertFalse(queue.isOverloaded());
+
+        Eventual<TimeoutableResult, String> oldPromise = new Eventual<>();
+        CancellableTask<TimeoutableResult, String> old = TaskFactory.createTask(new Value("old"), oldPromise);
+        assertTrue(queue.offer(old));
+        assertTrue(queue.offer(new NoOp()));
+
+        // No dequeue during the interval saw the queue drain below the target.
+        advanceMillis(100);
+        Runnable newest = new NoOp();
+        assertTrue(queue.offer(newest));
+
+        assertSame(newest, queue.take());
+        assertTrue(queue.isOverloaded());
+        assertEquals(2, queue.droppedCount());
+        assertEquals(0, queue.size());
+        assertEquals(TimeoutableResult.TIMEOUT, oldPromise.getResult());
+        assertTrue(oldPromise.getError() instanceof PrecipiceTimeoutException);
+    }
+
+    @Test
+    public void overloadClearsAfterAnIntervalBelowTarget() throws Exception {
+        assertTrue(queue.offer(new NoOp()));
+        advanceMillis(100);
+        assertTrue(queue.offer(new NoOp()));
+        queue.take();
+        assertTrue(queue.isOverloaded());
+
+        Runnable fresh = new NoOp();
+        assertTrue(queue.offer(fresh));
+        assertSame(fresh, queue.take());
+
+        advanceMillis(100);
+        assertTrue(queue.offer(new NoOp()));
+        queue.take();
+        assertFalse(queue.isOverloaded());
+    }
+
+    @Test
+    public void droppedSubmittedTasksAreCancelledAndRunnablesAreRejected() throws Exception {
+        final List<Runnable> rejected = new CopyOnWriteArrayList<>();
+        RejectedExecutionHandler handler = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejected.add(r);
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, Long.MAX_VALUE, TimeUnit.DAYS, queue, handler);
+        queue.setRejectedExecutionHandler(executor, handler);
+
+        try {
+            final CountDownLatch blockingLatch = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blockingLatch.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            });
+            Future<String> old = executor.submit(new Value("old"));
+            Runnable oldRunnable = new NoOp();
+            executor.execute(oldRunnable);
+
+            advanceMillis(100);
+            Future<String> newest = executor.submit(new Value("newest"));
+            blockingLatch.countDown();
+
+            assertEquals("newest", newest.get(5, TimeUnit.SECONDS));
+            try {
+                old.get(5, TimeUnit.SECONDS);
+                fail("Should have been cancelled.");
+            } catch (CancellationException e) {
+            }
+            assertTrue(old.isCancelled());
+            assertEquals(1, rejected.size());
+            assertSame(oldRunnable, rejected.get(0));
+            assertEquals(2, queue.droppedCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void advanceMillis(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static class NoOp implements Runnable {
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class Value implements Callable<String> {
+
+        private final String value;
+
+        private Value(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String call() {
+            return value;
+        }
+    }
+
+    private static class TestClock implements Clock {
+
+        private final AtomicLong nanos;
+
+        private TestClock(AtomicLong nanos) {
+            this.nanos = nanos;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos.get();
+        }
+    }
+}